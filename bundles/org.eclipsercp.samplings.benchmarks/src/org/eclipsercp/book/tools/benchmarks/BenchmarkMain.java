@@ -0,0 +1,52 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the samples benchmarks. Launch it as a Java application from the
+ * workspace, with the usual JMH arguments, for example
+ * <code>Discovery -p samples=300</code> to run the discovery benchmark over
+ * 300 samples.
+ * <p>
+ * The benchmarks are found through the classes that the JMH annotation
+ * processor generates into <code>.apt_generated</code> when the project is
+ * built. The processor is configured in the <code>.factorypath</code> of this
+ * project, which expects the <code>JMH_LIB</code> classpath variable to point
+ * to the folder holding <code>jmh-core.jar</code> and
+ * <code>jmh-generator-annprocess.jar</code>. Without it no benchmark is found
+ * and the runner stops with "No matching benchmarks".
+ * </p>
+ * <p>
+ * Unless other options are given, the <code>gc</code> profiler is added to
+ * report allocations, and the results are written as JSON to the
+ * <code>baselines</code> folder of the working directory, named after the
+ * current time. Results worth keeping as a baseline are committed to that
+ * folder of this project.
+ * </p>
+ */
+public class BenchmarkMain {
+
+	public static void main(final String[] args) throws Exception {
+		final CommandLineOptions options = new CommandLineOptions(args);
+		final ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+		if (!options.getResult().hasValue()) {
+			final File folder = new File("baselines");
+			folder.mkdirs();
+			final String name = "jmh-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+			builder.result(new File(folder, name).getPath()).resultFormat(ResultFormatType.JSON);
+		}
+		if (options.getProfilers().isEmpty()) {
+			builder.addProfiler(GCProfiler.class);
+		}
+		new Runner(builder.build()).run();
+	}
+}
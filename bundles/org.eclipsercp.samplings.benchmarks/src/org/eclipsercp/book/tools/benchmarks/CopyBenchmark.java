@@ -0,0 +1,62 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.eclipsercp.book.tools.BundleLocation;
+import org.eclipsercp.book.tools.Utils;
+
+/**
+ * Measures copying a sample project out of the samples tree, as done when a
+ * sample is imported, and copying a single file stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyBenchmark extends SampleTreeState {
+
+	private File destination;
+	private File file;
+
+	@Setup(Level.Trial)
+	public void createDestination() throws IOException {
+		destination = SampleBundleGenerator.createTempFolder("copy");
+		final String project = SampleBundleGenerator.getSampleName(0) + '/' + SampleBundleGenerator.getProjectName(0);
+		file = new File(root, project + '/' + SampleBundleGenerator.getSourceFolder() + '/' + SampleBundleGenerator.getClassName(0) + ".java");
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteDestination() {
+		SampleBundleGenerator.delete(destination);
+	}
+
+	@Setup(Level.Invocation)
+	public void emptyDestination() {
+		SampleBundleGenerator.delete(destination);
+	}
+
+	@Benchmark
+	public File copyProject() throws IOException {
+		final Path project = new Path(SampleBundleGenerator.getSampleName(0) + '/' + SampleBundleGenerator.getProjectName(0));
+		Utils.copy(new BundleLocation(source, project), destination, true, new NullProgressMonitor());
+		return destination;
+	}
+
+	@Benchmark
+	public int copyStream() throws IOException {
+		return Utils.copyStream(new FileInputStream(file), true, new ByteArrayOutputStream(fileSize), true);
+	}
+}
@@ -0,0 +1,82 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+import org.eclipsercp.book.tools.compare.Differencer;
+import org.eclipsercp.book.tools.compare.FileNode;
+
+/**
+ * Measures comparing the first and the last sample as file system trees, and
+ * comparing the content of single files. The <code>files</code> parameter
+ * sets the width of the source folders that are merged by name. Run with the
+ * <code>gc</code> profiler to see the memory allocated per compare. Comparing
+ * the sample structures is measured by
+ * <code>StructureDifferencerBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DifferencerBenchmark extends SampleTreeState {
+
+	/*
+	 * Exposes the content compare.
+	 */
+	private static class ContentDifferencer extends Differencer {
+		boolean equal(final Object input1, final Object input2) {
+			return contentsEqual(input1, input2);
+		}
+	}
+
+	private File firstFile;
+	private File equalFile;
+	private File differentFile;
+
+	@Setup(Level.Trial)
+	public void createInputs() throws IOException {
+		final byte[] content = SampleBundleGenerator.getContent("Content", fileSize, 42);
+		firstFile = write(content);
+		equalFile = write(content);
+		content[content.length - 3]++;
+		differentFile = write(content);
+	}
+
+	@Benchmark
+	public boolean contentsDifferent() {
+		return new ContentDifferencer().equal(new FileNode(firstFile), new FileNode(differentFile));
+	}
+
+	@Benchmark
+	public boolean contentsEqual() {
+		return new ContentDifferencer().equal(new FileNode(firstFile), new FileNode(equalFile));
+	}
+
+	@Benchmark
+	public Object fileTrees() {
+		final FileNode left = new FileNode(new File(root, SampleBundleGenerator.getSampleName(0)));
+		final FileNode right = new FileNode(new File(root, SampleBundleGenerator.getSampleName(samples - 1)));
+		return new Differencer().findDifferences(false, new NullProgressMonitor(), null, null, left, right);
+	}
+
+	private File write(final byte[] content) throws IOException {
+		final File file = File.createTempFile("content", ".java", root);
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
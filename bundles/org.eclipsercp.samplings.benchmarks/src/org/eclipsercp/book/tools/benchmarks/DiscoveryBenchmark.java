@@ -0,0 +1,24 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import org.eclipsercp.book.tools.Sample;
+
+/**
+ * Measures finding the samples and their projects, including reading the
+ * <code>imports.def</code> files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DiscoveryBenchmark extends SampleTreeState {
+
+	@Benchmark
+	public Sample[] discover() {
+		return createModel().getSamples();
+	}
+}
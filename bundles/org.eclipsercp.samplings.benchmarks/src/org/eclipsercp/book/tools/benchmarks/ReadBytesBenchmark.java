@@ -0,0 +1,75 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.eclipsercp.book.tools.compare.EclipseResourceNode;
+
+/**
+ * Measures reading whole streams of various sizes with and without knowing
+ * the length up front, from memory and from a file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadBytesBenchmark {
+
+	@Param({ "100", "4096", "65536", "1048576" })
+	public int size;
+
+	private byte[] content;
+	private File file;
+
+	@Setup(Level.Trial)
+	public void createContent() throws IOException {
+		content = SampleBundleGenerator.getContent("Content", size, 42);
+		file = File.createTempFile("content", ".java");
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteContent() {
+		file.delete();
+	}
+
+	@Benchmark
+	public byte[] fileKnownLength() throws IOException {
+		return EclipseResourceNode.readBytes(new FileInputStream(file), (int) file.length());
+	}
+
+	@Benchmark
+	public byte[] fileUnknownLength() throws IOException {
+		return EclipseResourceNode.readBytes(new FileInputStream(file));
+	}
+
+	@Benchmark
+	public byte[] memoryKnownLength() {
+		return EclipseResourceNode.readBytes(new ByteArrayInputStream(content), content.length);
+	}
+
+	@Benchmark
+	public byte[] memoryUnknownLength() {
+		return EclipseResourceNode.readBytes(new ByteArrayInputStream(content));
+	}
+}
@@ -0,0 +1,355 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.eclipsercp.book.tools.MemorySampleSource;
+
+/**
+ * Generates a synthetic samples bundle in the layout <code>SamplesModel</code>
+ * discovers, as a folder, a jar or in memory. The same seed always produces
+ * the same bundle, whatever the output.
+ * <p>
+ * Every sample folder starts with the sample number. The first project is
+ * edited in every sample, like the project a reader works on. The other
+ * projects change less often; a sample only contains the projects that
+ * changed in it and lists the others in its <code>imports.def</code>, with
+ * the number of the sample they were last changed in. Edits modify, add and
+ * remove source files. Some samples also have a <code>snippets</code> folder,
+ * which is not a project of the sample.
+ * </p>
+ */
+public class SampleBundleGenerator {
+
+	/*
+	 * Receives the generated entries.
+	 */
+	private interface EntryWriter {
+		void write(String path, byte[] content) throws IOException;
+	}
+
+	public static final String SYMBOLIC_NAME = "org.example.samples";
+
+	private static final String PROJECT_DESCRIPTION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" //
+			+ "<projectDescription>\n\t<name>{0}</name>\n\t<comment></comment>\n\t<projects>\n\t</projects>\n" //
+			+ "\t<buildSpec>\n\t</buildSpec>\n\t<natures>\n\t</natures>\n</projectDescription>\n";
+
+	/**
+	 * Returns a new empty temporary folder.
+	 */
+	public static File createTempFolder(final String prefix) throws IOException {
+		final File folder = File.createTempFile(prefix, "");
+		folder.delete();
+		folder.mkdirs();
+		return folder;
+	}
+
+	/**
+	 * Deletes the given file or folder and everything in it.
+	 */
+	public static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	public static String getClassName(final int file) {
+		return "Class" + file;
+	}
+
+	/**
+	 * Returns Java-like source of about the given size.
+	 */
+	public static byte[] getContent(final String className, final int size, final long seed) throws IOException {
+		final Random random = new Random(seed);
+		final StringBuffer buffer = new StringBuffer(size + 64);
+		buffer.append("package org.example;\n\npublic class ").append(className).append(" {\n");
+		while (buffer.length() < size - 2) {
+			buffer.append("\tprivate int field").append(random.nextInt(10000)).append(" = ").append(random.nextInt()).append(";\n");
+		}
+		buffer.append("}\n");
+		return buffer.toString().getBytes("UTF-8");
+	}
+
+	public static String getProjectName(final int project) {
+		return "org.example.project" + project;
+	}
+
+	public static String getSampleName(final int sample) {
+		return getSampleNumber(sample) + " Sample";
+	}
+
+	/**
+	 * Returns the number of the sample at the given position, as written in
+	 * its folder name and in <code>imports.def</code> files.
+	 */
+	public static String getSampleNumber(final int sample) {
+		return String.valueOf(sample + 1);
+	}
+
+	/**
+	 * Returns the path of the folder holding the source files of a project,
+	 * relative to the project.
+	 */
+	public static String getSourceFolder() {
+		return "src/org/example";
+	}
+
+	/**
+	 * Generates a bundle. Arguments: <code>dir</code> or <code>jar</code>,
+	 * the output path, then optionally the number of samples, projects, files
+	 * per project, the file size and the seed.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: SampleBundleGenerator dir|jar <output> [samples [projects [files [fileSize [seed]]]]]");
+			return;
+		}
+		final SampleBundleGenerator generator = new SampleBundleGenerator(args.length > 6 ? Long.parseLong(args[6]) : 42);
+		if (args.length > 2) {
+			generator.setSamples(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			generator.setProjects(Integer.parseInt(args[3]));
+		}
+		if (args.length > 4) {
+			generator.setFiles(Integer.parseInt(args[4]));
+		}
+		if (args.length > 5) {
+			generator.setFileSize(Integer.parseInt(args[5]));
+		}
+		final File output = new File(args[1]);
+		if ("jar".equals(args[0])) {
+			generator.writeJar(output);
+		} else {
+			generator.writeDirectory(output);
+		}
+	}
+
+	private final long seed;
+	private int samples = 20;
+	private int projects = 3;
+	private int files = 50;
+	private int fileSize = 2048;
+	private double changeRate = 0.1;
+	private double importedChangeRate = 0.02;
+	private int snippetsInterval = 5;
+
+	public SampleBundleGenerator(final long seed) {
+		this.seed = seed;
+	}
+
+	private void generate(final EntryWriter writer) throws IOException {
+		final Random random = new Random(seed);
+		// project -> (file number -> version), in file number order
+		final Map[] versions = new Map[projects];
+		final int[] nextFile = new int[projects];
+		final int[] lastChanged = new int[projects];
+		for (int p = 0; p < projects; p++) {
+			versions[p] = new TreeMap();
+			for (int f = 0; f < files; f++) {
+				versions[p].put(new Integer(f), new Integer(0));
+			}
+			nextFile[p] = files;
+		}
+		for (int s = 0; s < samples; s++) {
+			final String sample = getSampleName(s) + '/';
+			final StringBuffer imports = new StringBuffer();
+			String fileToOpen = null;
+			for (int p = 0; p < projects; p++) {
+				String changedFile = s == 0 ? getClassName(0) : edit(versions[p], p == 0 ? changeRate : importedChangeRate, nextFile, p, random);
+				if ((p == 0) && (changedFile == null)) {
+					// every sample has an edit of its own
+					final List numbers = new ArrayList(versions[p].keySet());
+					final Object file = numbers.get(random.nextInt(numbers.size()));
+					versions[p].put(file, new Integer(((Integer) versions[p].get(file)).intValue() + 1));
+					changedFile = getClassName(((Integer) file).intValue());
+				}
+				if ((s > 0) && (changedFile == null)) {
+					imports.append(getSampleNumber(lastChanged[p])).append('=').append(getProjectName(p)).append('\n');
+					continue;
+				}
+				lastChanged[p] = s;
+				writeProject(writer, sample, p, versions[p]);
+				if (fileToOpen == null) {
+					fileToOpen = '/' + getProjectName(p) + '/' + getSourceFolder() + '/' + changedFile + ".java";
+				}
+			}
+			if (fileToOpen != null) {
+				imports.append("fileToOpen=").append(fileToOpen).append('\n');
+			}
+			if (imports.length() > 0) {
+				writer.write(sample + "imports.def", imports.toString().getBytes("ISO-8859-1"));
+			}
+			if ((snippetsInterval > 0) && (s % snippetsInterval == snippetsInterval - 1)) {
+				writer.write(sample + "snippets/.project", PROJECT_DESCRIPTION.replace("{0}", "snippets").getBytes("UTF-8"));
+				for (int i = 0; i < 3; i++) {
+					final String name = "Snippet" + i;
+					writer.write(sample + "snippets/" + name + ".java", getContent(name, fileSize, seed ^ (s * 31 + i)));
+				}
+			}
+		}
+	}
+
+	/*
+	 * Applies a random edit to the files of a project: a file may be removed,
+	 * each file is modified with the given rate and a file may be added.
+	 * Returns the name of an edited class, or null if nothing changed.
+	 */
+	private static String edit(final Map versions, final double rate, final int[] nextFile, final int project, final Random random) {
+		String changed = null;
+		if ((versions.size() > 1) && (random.nextDouble() < rate / 2)) {
+			final List numbers = new ArrayList(versions.keySet());
+			versions.remove(numbers.get(random.nextInt(numbers.size())));
+			changed = getClassName(((Integer) versions.keySet().iterator().next()).intValue());
+		}
+		for (final Iterator i = versions.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry entry = (Map.Entry) i.next();
+			if (random.nextDouble() < rate) {
+				entry.setValue(new Integer(((Integer) entry.getValue()).intValue() + 1));
+				changed = getClassName(((Integer) entry.getKey()).intValue());
+			}
+		}
+		if (random.nextDouble() < rate) {
+			final int file = nextFile[project]++;
+			versions.put(new Integer(file), new Integer(0));
+			changed = getClassName(file);
+		}
+		return changed;
+	}
+
+	public void setChangeRate(final double rate) {
+		changeRate = rate;
+	}
+
+	public void setFiles(final int count) {
+		files = count;
+	}
+
+	public void setFileSize(final int size) {
+		fileSize = size;
+	}
+
+	/**
+	 * Sets the fraction of files changed per sample in the projects other
+	 * than the first, which are imported while they do not change.
+	 */
+	public void setImportedChangeRate(final double rate) {
+		importedChangeRate = rate;
+	}
+
+	public void setProjects(final int count) {
+		projects = count;
+	}
+
+	public void setSamples(final int count) {
+		samples = count;
+	}
+
+	/**
+	 * Sets how often a sample has a snippets folder, <code>0</code> for
+	 * never.
+	 */
+	public void setSnippetsInterval(final int interval) {
+		snippetsInterval = interval;
+	}
+
+	/**
+	 * Writes the bundle to the given empty or missing folder.
+	 */
+	public void writeDirectory(final File root) throws IOException {
+		writeBundle(new EntryWriter() {
+			public void write(final String path, final byte[] content) throws IOException {
+				final File file = new File(root, path);
+				file.getParentFile().mkdirs();
+				final OutputStream out = new FileOutputStream(file);
+				try {
+					out.write(content);
+				} finally {
+					out.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the bundle to the given jar file.
+	 */
+	public void writeJar(final File jar) throws IOException {
+		final Manifest manifest = new Manifest();
+		fillManifest(manifest);
+		final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+		try {
+			generate(new EntryWriter() {
+				public void write(final String path, final byte[] content) throws IOException {
+					out.putNextEntry(new ZipEntry(path));
+					out.write(content);
+					out.closeEntry();
+				}
+			});
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the bundle to the given in-memory source.
+	 */
+	public void writeMemory(final MemorySampleSource source) throws IOException {
+		writeBundle(new EntryWriter() {
+			public void write(final String path, final byte[] content) {
+				source.addFile(path, content);
+			}
+		});
+	}
+
+	private void fillManifest(final Manifest manifest) {
+		final Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue("Bundle-ManifestVersion", "2");
+		attributes.putValue("Bundle-SymbolicName", SYMBOLIC_NAME);
+		attributes.putValue("Bundle-Version", "1.0.0." + Long.toHexString(seed));
+	}
+
+	/*
+	 * Writes the bundle manifest followed by the samples.
+	 */
+	private void writeBundle(final EntryWriter writer) throws IOException {
+		final Manifest manifest = new Manifest();
+		fillManifest(manifest);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.write(out);
+		writer.write("META-INF/MANIFEST.MF", out.toByteArray());
+		generate(writer);
+	}
+
+	private void writeProject(final EntryWriter writer, final String sample, final int project, final Map versions) throws IOException {
+		final String name = getProjectName(project);
+		final String folder = sample + name + '/';
+		writer.write(folder + ".project", PROJECT_DESCRIPTION.replace("{0}", name).getBytes("UTF-8"));
+		for (final Iterator i = versions.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry entry = (Map.Entry) i.next();
+			final int file = ((Integer) entry.getKey()).intValue();
+			final int version = ((Integer) entry.getValue()).intValue();
+			final long contentSeed = seed ^ ((((long) project * 1000003) + file) * 1000003 + version);
+			writer.write(folder + getSourceFolder() + '/' + getClassName(file) + ".java", getContent(getClassName(file), fileSize, contentSeed));
+		}
+	}
+}
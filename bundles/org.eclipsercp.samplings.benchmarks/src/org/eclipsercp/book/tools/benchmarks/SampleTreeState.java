@@ -0,0 +1,96 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.eclipsercp.book.tools.BundleLocation;
+import org.eclipsercp.book.tools.DirectorySampleSource;
+import org.eclipsercp.book.tools.SampleSource;
+import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.ZipSampleSource;
+
+/**
+ * A generated samples bundle shared by the benchmarks of one trial. The size
+ * of the bundle is set with the <code>samples</code>, <code>projects</code>,
+ * <code>files</code> and <code>fileSize</code> parameters, for example
+ * <code>-p samples=300 -p files=500</code>.
+ */
+@State(Scope.Benchmark)
+public abstract class SampleTreeState {
+
+	@Param({ "20" })
+	public int samples;
+
+	@Param({ "3" })
+	public int projects;
+
+	@Param({ "50" })
+	public int files;
+
+	@Param({ "2048" })
+	public int fileSize;
+
+	@Param({ "0.1" })
+	public double changeRate;
+
+	/**
+	 * Where samples are read from: <code>dir</code> for the generated folder,
+	 * <code>jar</code> for a jar with the same content. Benchmarks working on
+	 * files always use the folder.
+	 */
+	@Param({ "dir" })
+	public String format;
+
+	protected File root;
+	protected SampleSource source;
+	private File jar;
+
+	/**
+	 * Returns a model of the samples in the tree.
+	 */
+	protected SamplesModel createModel() {
+		final SamplesModel model = new SamplesModel();
+		model.init(new BundleLocation(source, Path.EMPTY), new NullProgressMonitor());
+		return model;
+	}
+
+	@Setup(Level.Trial)
+	public void createTree() throws IOException {
+		final SampleBundleGenerator generator = new SampleBundleGenerator(42);
+		generator.setSamples(samples);
+		generator.setProjects(projects);
+		generator.setFiles(files);
+		generator.setFileSize(fileSize);
+		generator.setChangeRate(changeRate);
+		root = SampleBundleGenerator.createTempFolder("samples");
+		generator.writeDirectory(root);
+		if ("jar".equals(format)) {
+			jar = File.createTempFile("samples", ".jar");
+			generator.writeJar(jar);
+			source = new ZipSampleSource(jar);
+		} else {
+			source = new DirectorySampleSource(root);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTree() throws IOException {
+		if (source instanceof ZipSampleSource) {
+			((ZipSampleSource) source).close();
+		}
+		if (jar != null) {
+			jar.delete();
+		}
+		SampleBundleGenerator.delete(root);
+	}
+}
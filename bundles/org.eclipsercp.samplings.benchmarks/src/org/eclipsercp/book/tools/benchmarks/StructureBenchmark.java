@@ -0,0 +1,54 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.compare.structuremergeviewer.IStructureComparator;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+import org.eclipsercp.book.tools.Sample;
+import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator;
+
+/**
+ * Measures building the compare structure of a sample, for the whole sample
+ * and scoped to one project, and getting it from the shared cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StructureBenchmark extends SampleTreeState {
+
+	private SampleStructureCreator creator;
+	private Sample sample;
+
+	@Setup
+	public void findSample() {
+		final SamplesModel model = createModel();
+		final Sample[] all = model.getSamples();
+		sample = all[all.length - 1];
+		creator = new SampleStructureCreator(model);
+	}
+
+	@Benchmark
+	public IStructureComparator cached() {
+		return creator.getStructure(sample);
+	}
+
+	@Benchmark
+	public IStructureComparator uncached() {
+		SampleStructureCreator.clearCache();
+		return creator.getStructure(sample);
+	}
+
+	@Benchmark
+	public IStructureComparator uncachedScoped() {
+		SampleStructureCreator.clearCache();
+		return creator.getStructure(sample, new IPath[] { new Path(SampleBundleGenerator.getProjectName(0)) });
+	}
+}
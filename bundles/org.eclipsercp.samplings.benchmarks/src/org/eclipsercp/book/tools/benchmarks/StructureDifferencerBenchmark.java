@@ -0,0 +1,66 @@
+package org.eclipsercp.book.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import org.eclipsercp.book.tools.Sample;
+import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.compare.Differencer;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator;
+
+/**
+ * Measures comparing the sample structures of the first and the last sample.
+ * The structures are built before every compare when <code>cold</code> is
+ * set, so it has a state of its own and the other compare benchmarks are not
+ * slowed down by a setup per invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StructureDifferencerBenchmark extends SampleTreeState {
+
+	/**
+	 * Whether sample file digests are computed in every compare, as in the
+	 * first compare after startup, or reused from the previous compare.
+	 */
+	@Param({ "false", "true" })
+	public boolean cold;
+
+	private SamplesModel model;
+	private Sample first;
+	private Sample last;
+	private Object firstStructure;
+	private Object lastStructure;
+
+	@Setup(Level.Trial)
+	public void findSamples() {
+		model = createModel();
+		final Sample[] all = model.getSamples();
+		first = all[0];
+		last = all[all.length - 1];
+		createStructures();
+	}
+
+	@Setup(Level.Invocation)
+	public void createStructures() {
+		if (cold || (firstStructure == null)) {
+			SampleStructureCreator.clearCache();
+			final SampleStructureCreator creator = new SampleStructureCreator(model);
+			firstStructure = creator.getStructure(first);
+			lastStructure = creator.getStructure(last);
+		}
+	}
+
+	@Benchmark
+	public Object sampleStructures() {
+		return new Differencer().findDifferences(false, new NullProgressMonitor(), null, null, firstStructure, lastStructure);
+	}
+}
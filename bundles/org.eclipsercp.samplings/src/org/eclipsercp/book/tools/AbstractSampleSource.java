@@ -0,0 +1,97 @@
+package org.eclipsercp.book.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Common implementation of the derived <code>SampleSource</code> operations.
+ * Subclasses whose entries are known up front keep them in a table built with
+ * <code>addEntry</code>.
+ */
+public abstract class AbstractSampleSource implements SampleSource {
+
+	protected static final String[] NO_ENTRIES = new String[0];
+
+	/**
+	 * Adds the entry at the given path and all its parent directories to the
+	 * given table from directory path to the <code>Set</code> of its
+	 * children.
+	 */
+	protected static void addEntry(final Map table, final String path) {
+		String child = path;
+		while (child.length() > 0) {
+			final int end = child.endsWith("/") ? child.length() - 1 : child.length();
+			final String parent = child.substring(0, child.lastIndexOf('/', end - 1) + 1);
+			Set children = (Set) table.get(parent);
+			final boolean known = children != null;
+			if (!known) {
+				children = new LinkedHashSet(4);
+				table.put(parent, children);
+			}
+			if (!children.add(child) || known) {
+				return;
+			}
+			child = parent;
+		}
+	}
+
+	/**
+	 * Returns the given path without a leading <code>/</code>.
+	 */
+	protected static String toEntryPath(final String path) {
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	/**
+	 * Returns the given path as a directory path: without a leading and with a
+	 * trailing <code>/</code>, or empty for the root.
+	 */
+	protected static String toDirectoryPath(final String path) {
+		final String result = toEntryPath(path);
+		if ((result.length() == 0) || result.endsWith("/")) {
+			return result;
+		}
+		return result + '/';
+	}
+
+	/**
+	 * Returns the children of the given directory from a table built with
+	 * <code>addEntry</code>.
+	 */
+	protected static String[] list(final Map table, final String path) {
+		final Set children = (Set) table.get(toDirectoryPath(path));
+		if (children == null) {
+			return NO_ENTRIES;
+		}
+		return (String[]) children.toArray(new String[children.size()]);
+	}
+
+	private void collectTree(final String path, final List result) {
+		final String[] children = list(path);
+		for (int i = 0; i < children.length; i++) {
+			result.add(children[i]);
+			if (children[i].endsWith("/")) {
+				collectTree(children[i], result);
+			}
+		}
+	}
+
+	public String[] listTree(final String path) {
+		final List result = new ArrayList();
+		collectTree(path, result);
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	public byte[] read(final String path) throws IOException {
+		final long size = getSize(path);
+		return Utils.readStream(open(path), size > Integer.MAX_VALUE ? -1 : (int) size);
+	}
+
+	public String toString() {
+		return getName();
+	}
+}
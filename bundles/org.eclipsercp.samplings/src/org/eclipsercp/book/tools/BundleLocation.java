@@ -1,7 +1,5 @@
 package org.eclipsercp.book.tools;
 
-import java.util.Enumeration;
-
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.QualifiedName;
 
@@ -9,22 +7,38 @@ import org.osgi.framework.Bundle;
 
 public class BundleLocation {
 	public IPath location;
+	/**
+	 * The bundle containing the location, or <code>null</code> if the source
+	 * is not a bundle.
+	 */
 	public Bundle bundle;
+	public SampleSource source;
 	private String id;
 
 	public BundleLocation(final Bundle bundle, final IPath location) {
-		this.bundle = bundle;
-		this.location = location;
+		this(new BundleSampleSource(bundle), location, null);
 	}
 
 	public BundleLocation(final Bundle bundle, final IPath location, final String id) {
-		this.bundle = bundle;
+		this(new BundleSampleSource(bundle), location, id);
+	}
+
+	public BundleLocation(final SampleSource source, final IPath location) {
+		this(source, location, null);
+	}
+
+	public BundleLocation(final SampleSource source, final IPath location, final String id) {
+		this.source = source;
+		this.bundle = source instanceof BundleSampleSource ? ((BundleSampleSource) source).getBundle() : null;
 		this.location = location;
 		this.id = id;
 	}
 
-	public Enumeration getEntries() {
-		return bundle.getEntryPaths(location.toString());
+	/**
+	 * Returns the paths of the immediate children of this location.
+	 */
+	public String[] getEntries() {
+		return source.list(location.toString());
 	}
 
 	public QualifiedName getId() {
@@ -35,6 +49,6 @@ public class BundleLocation {
 	}
 
 	public String toString() {
-		return bundle.getSymbolicName() + "/" + location;
+		return source.getName() + "/" + location;
 	}
 }
@@ -0,0 +1,117 @@
+package org.eclipsercp.book.tools;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * The entries of an installed bundle.
+ */
+public class BundleSampleSource extends AbstractSampleSource {
+
+	private final Bundle bundle;
+
+	public BundleSampleSource(final Bundle bundle) {
+		this.bundle = bundle;
+	}
+
+	public boolean equals(final Object obj) {
+		return (obj instanceof BundleSampleSource) && bundle.equals(((BundleSampleSource) obj).bundle);
+	}
+
+	public boolean exists(final String path) {
+		return bundle.getEntry(path) != null;
+	}
+
+	public Bundle getBundle() {
+		return bundle;
+	}
+
+	public String getId() {
+		return bundle.getSymbolicName() + '_' + bundle.getVersion();
+	}
+
+	public long getLastModified() {
+		return bundle.getLastModified();
+	}
+
+	public String getName() {
+		return bundle.getSymbolicName();
+	}
+
+	/*
+	 * The size of a bundle entry is only known by opening it, so it is not
+	 * known here. Reading an entry sizes its buffer from the same connection.
+	 */
+	public long getSize(final String path) {
+		return -1;
+	}
+
+	public int hashCode() {
+		return bundle.hashCode();
+	}
+
+	public String[] list(final String path) {
+		final Enumeration entries = bundle.getEntryPaths(path);
+		if (entries == null) {
+			return NO_ENTRIES;
+		}
+		final List result = new ArrayList();
+		while (entries.hasMoreElements()) {
+			result.add(entries.nextElement());
+		}
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	/*
+	 * Lists the whole tree with a single lookup in the bundle instead of one
+	 * per directory. Sorting the paths puts every directory directly before
+	 * the entries below it.
+	 */
+	public String[] listTree(final String path) {
+		final String parent = toDirectoryPath(path);
+		final Enumeration entries = bundle.findEntries(parent.length() == 0 ? "/" : parent, null, true);
+		if (entries == null) {
+			return NO_ENTRIES;
+		}
+		final List result = new ArrayList();
+		while (entries.hasMoreElements()) {
+			final String entry = toEntryPath(((URL) entries.nextElement()).getPath());
+			if (entry.length() > parent.length()) {
+				result.add(entry);
+			}
+		}
+		final String[] paths = (String[]) result.toArray(new String[result.size()]);
+		Arrays.sort(paths);
+		return paths;
+	}
+
+	public InputStream open(final String path) throws IOException {
+		final URL entry = bundle.getEntry(path);
+		if (entry == null) {
+			throw new FileNotFoundException(path);
+		}
+		return entry.openStream();
+	}
+
+	/*
+	 * Reads the entry through a single connection, using the advertised
+	 * length to size the buffer.
+	 */
+	public byte[] read(final String path) throws IOException {
+		final URL entry = bundle.getEntry(path);
+		if (entry == null) {
+			throw new FileNotFoundException(path);
+		}
+		final URLConnection connection = entry.openConnection();
+		return Utils.readStream(connection.getInputStream(), connection.getContentLength());
+	}
+}
@@ -0,0 +1,130 @@
+package org.eclipsercp.book.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the files that were added, removed or changed between a sample and
+ * the sample before it. Manifests are computed once in the background and
+ * attached to the {@link Sample} so that the view and compare can use them
+ * without diffing the sample trees again. Changes in whitespace only are not
+ * recorded, so a manifest can only stand in for a compare that ignores
+ * whitespace.
+ */
+public class ChangeManifest {
+
+	public static class Change {
+		public static final int ADDED = 1;
+		public static final int REMOVED = 2;
+		public static final int CHANGED = 3;
+
+		private final String path;
+		private final int kind;
+		private final int oldLines;
+		private final int newLines;
+
+		public Change(final String path, final int kind, final int oldLines, final int newLines) {
+			this.path = path;
+			this.kind = kind;
+			this.oldLines = oldLines;
+			this.newLines = newLines;
+		}
+
+		public int getKind() {
+			return kind;
+		}
+
+		/**
+		 * Returns the difference in the number of lines, positive if the file
+		 * grew.
+		 */
+		public int getLineDelta() {
+			return newLines - oldLines;
+		}
+
+		public int getNewLines() {
+			return newLines;
+		}
+
+		public int getOldLines() {
+			return oldLines;
+		}
+
+		public String getPath() {
+			return path;
+		}
+	}
+
+	private final Float previousNumber;
+	private final List changes = new ArrayList();
+	private final Map changesByPath = new HashMap();
+	private int added;
+	private int removed;
+	private int changed;
+
+	public ChangeManifest(final Float previousNumber) {
+		this.previousNumber = previousNumber;
+	}
+
+	public void add(final Change change) {
+		changes.add(change);
+		changesByPath.put(change.getPath(), change);
+		switch (change.getKind()) {
+			case Change.ADDED:
+				added++;
+				break;
+			case Change.REMOVED:
+				removed++;
+				break;
+			default:
+				changed++;
+				break;
+		}
+	}
+
+	public Change getChange(final String path) {
+		return (Change) changesByPath.get(path);
+	}
+
+	public Change[] getChanges() {
+		return (Change[]) changes.toArray(new Change[changes.size()]);
+	}
+
+	/**
+	 * Returns the number of the sample this manifest is relative to.
+	 */
+	public Float getPreviousNumber() {
+		return previousNumber;
+	}
+
+	/**
+	 * Returns a short summary such as <code>+2 -1 ~4</code>.
+	 */
+	public String getSummary() {
+		return "+" + added + " -" + removed + " ~" + changed;
+	}
+
+	/**
+	 * Returns whether any file inside the folder at the given path was added,
+	 * removed or changed.
+	 */
+	public boolean isChangedBelow(final String folderPath) {
+		final String prefix = folderPath.length() == 0 ? "" : folderPath + '/';
+		for (int i = 0; i < changes.size(); i++) {
+			if (((Change) changes.get(i)).getPath().startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the file at the given path was added, removed or changed.
+	 * Paths are relative to the sample root and start with the project name.
+	 */
+	public boolean isChanged(final String path) {
+		return changesByPath.containsKey(path);
+	}
+}
@@ -0,0 +1,120 @@
+package org.eclipsercp.book.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The files below a directory of the local file system, for example an
+ * unpacked samples bundle.
+ * <p>
+ * The version of the content is the newest modification time of any file or
+ * directory in the tree. Finding it walks the whole tree, so it is looked up
+ * once, when the id is first asked for, and again only on
+ * <code>refresh</code>. Changes made in between are not noticed.
+ * </p>
+ */
+public class DirectorySampleSource extends AbstractSampleSource {
+
+	/*
+	 * Returns the newest modification time of the given file and everything
+	 * below it.
+	 */
+	private static long getNewestModification(final File file) {
+		long newest = file.lastModified();
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				newest = Math.max(newest, getNewestModification(children[i]));
+			}
+		}
+		return newest;
+	}
+
+	private final File root;
+	private long lastModified;
+	private String id;
+
+	public DirectorySampleSource(final File root) {
+		this.root = root.getAbsoluteFile();
+	}
+
+	public boolean equals(final Object obj) {
+		return (obj instanceof DirectorySampleSource) && root.equals(((DirectorySampleSource) obj).root);
+	}
+
+	public boolean exists(final String path) {
+		return getFile(path).exists();
+	}
+
+	private File getFile(final String path) {
+		final String entry = toEntryPath(path);
+		return entry.length() == 0 ? root : new File(root, entry);
+	}
+
+	/**
+	 * Returns the path of the directory and the version of its content as of
+	 * the last <code>refresh</code>.
+	 */
+	public synchronized String getId() {
+		if (id == null) {
+			refresh();
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the newest modification time in the tree as of the last
+	 * <code>refresh</code>.
+	 */
+	public synchronized long getLastModified() {
+		if (id == null) {
+			refresh();
+		}
+		return lastModified;
+	}
+
+	public String getName() {
+		return root.getName();
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	public long getSize(final String path) {
+		final File file = getFile(path);
+		return file.isFile() ? file.length() : -1;
+	}
+
+	public int hashCode() {
+		return root.hashCode();
+	}
+
+	public String[] list(final String path) {
+		final String parent = toDirectoryPath(path);
+		final File[] files = getFile(parent).listFiles();
+		if (files == null) {
+			return NO_ENTRIES;
+		}
+		final String[] result = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			result[i] = parent + files[i].getName() + (files[i].isDirectory() ? "/" : "");
+		}
+		return result;
+	}
+
+	public InputStream open(final String path) throws IOException {
+		return new FileInputStream(getFile(path));
+	}
+
+	/**
+	 * Looks up the version of the content again, so caches keyed by the id
+	 * no longer hand out data of an older state of the directory.
+	 */
+	public synchronized void refresh() {
+		lastModified = getNewestModification(root);
+		id = "dir:" + root.getPath() + '_' + lastModified;
+	}
+}
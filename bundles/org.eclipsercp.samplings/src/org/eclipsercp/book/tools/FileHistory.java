@@ -0,0 +1,100 @@
+package org.eclipsercp.book.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reverse index from the path of a sample file to the samples in which the
+ * file is added, changed or removed, in sample order. The index is filled in
+ * the background once the samples are known, so asking for the history of a
+ * file neither enumerates samples nor reads any content.
+ */
+public class FileHistory {
+
+	/**
+	 * A sample in which a file has a new version, or is removed.
+	 */
+	public static class Version {
+		private final Float sampleNumber;
+		private final byte[] digest;
+
+		public Version(final Float sampleNumber, final byte[] digest) {
+			this.sampleNumber = sampleNumber;
+			this.digest = digest;
+		}
+
+		/**
+		 * Returns the digest of the file content in this sample, or
+		 * <code>null</code> if the file was removed.
+		 */
+		public byte[] getDigest() {
+			return digest;
+		}
+
+		public Float getSampleNumber() {
+			return sampleNumber;
+		}
+
+		public boolean isRemoved() {
+			return digest == null;
+		}
+	}
+
+	private final Map versions = new HashMap();
+
+	/**
+	 * Records the version of the file at the given path in the given sample.
+	 * Samples must be added in number order. Nothing is recorded if the
+	 * content is the same as in the last recorded version.
+	 *
+	 * @param digest
+	 *            the digest of the content, or <code>null</code> if the file
+	 *            does not exist in the sample
+	 */
+	public synchronized void add(final String path, final Float sampleNumber, final byte[] digest) {
+		List list = (List) versions.get(path);
+		if (list == null) {
+			if (digest == null) {
+				return;
+			}
+			list = new ArrayList(2);
+			versions.put(path, list);
+		} else if (Arrays.equals(((Version) list.get(list.size() - 1)).getDigest(), digest)) {
+			return;
+		}
+		list.add(new Version(sampleNumber, digest));
+	}
+
+	/**
+	 * Returns the digest of the last recorded version of the file at the given
+	 * path, or <code>null</code> if it does not exist.
+	 */
+	public synchronized byte[] getLastDigest(final String path) {
+		final List list = (List) versions.get(path);
+		return list == null ? null : ((Version) list.get(list.size() - 1)).getDigest();
+	}
+
+	/**
+	 * Returns the paths of all files that exist in some sample, sorted.
+	 */
+	public synchronized String[] getPaths() {
+		final String[] paths = (String[]) versions.keySet().toArray(new String[versions.size()]);
+		Arrays.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * Returns the versions of the file at the given path in sample order. The
+	 * first version is the sample introducing the file.
+	 */
+	public synchronized Version[] getVersions(final String path) {
+		final List list = (List) versions.get(path);
+		if (list == null) {
+			return new Version[0];
+		}
+		return (Version[]) list.toArray(new Version[list.size()]);
+	}
+}
@@ -0,0 +1,105 @@
+package org.eclipsercp.book.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sample entries held in memory, for example generated samples or samples
+ * read once from a slower source.
+ */
+public class MemorySampleSource extends AbstractSampleSource {
+
+	private final String name;
+	private final Map files = new HashMap();
+	private final Map children = new HashMap();
+	private long lastModified;
+
+	public MemorySampleSource(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a directory, which may be empty, at the given path.
+	 */
+	public synchronized void addDirectory(final String path) {
+		final String entry = toDirectoryPath(path);
+		if (entry.length() > 0) {
+			addEntry(children, entry);
+		}
+		lastModified++;
+	}
+
+	/**
+	 * Adds or replaces the file at the given path. The content is not copied.
+	 */
+	public synchronized void addFile(final String path, final byte[] content) {
+		final String entry = toEntryPath(path);
+		files.put(entry, content);
+		addEntry(children, entry);
+		lastModified++;
+	}
+
+	public synchronized boolean exists(final String path) {
+		final String entry = toEntryPath(path);
+		return files.containsKey(entry) || (entry.length() == 0) || isDirectory(entry);
+	}
+
+	private byte[] getContent(final String path) throws FileNotFoundException {
+		final byte[] content = (byte[]) files.get(toEntryPath(path));
+		if (content == null) {
+			throw new FileNotFoundException(path);
+		}
+		return content;
+	}
+
+	/**
+	 * Returns the identity of this source together with the number of
+	 * modifications, since the content can change.
+	 */
+	public synchronized String getId() {
+		return "mem:" + name + '@' + Integer.toHexString(System.identityHashCode(this)) + '_' + lastModified;
+	}
+
+	/**
+	 * Returns the number of modifications made to this source.
+	 */
+	public synchronized long getLastModified() {
+		return lastModified;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized long getSize(final String path) {
+		final byte[] content = (byte[]) files.get(toEntryPath(path));
+		return content == null ? -1 : content.length;
+	}
+
+	private boolean isDirectory(final String entry) {
+		final String directory = toDirectoryPath(entry);
+		if (children.containsKey(directory)) {
+			return true;
+		}
+		final int end = directory.lastIndexOf('/', directory.length() - 2);
+		final Object siblings = children.get(directory.substring(0, end + 1));
+		return (siblings != null) && ((Set) siblings).contains(directory);
+	}
+
+	public synchronized String[] list(final String path) {
+		return list(children, path);
+	}
+
+	public synchronized InputStream open(final String path) throws IOException {
+		return new ByteArrayInputStream(getContent(path));
+	}
+
+	public synchronized byte[] read(final String path) throws IOException {
+		return (byte[]) getContent(path).clone();
+	}
+}
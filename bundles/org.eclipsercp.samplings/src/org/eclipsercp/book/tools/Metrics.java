@@ -0,0 +1,329 @@
+package org.eclipsercp.book.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process registry of the counters and histograms fed by the samples
+ * operations, such as the cache hits and misses of the compare structures and
+ * the duration of every import phase. Metrics are created on first use and
+ * live until the workbench shuts down; <code>reset</code> clears their values
+ * but keeps them registered.
+ * <p>
+ * Counting is a single atomic increment and recording a value takes a short
+ * lock, so metrics can be fed from the operations unconditionally. The
+ * durations, files and bytes of the phases are recorded from the
+ * <code>PhaseEvent</code>s, which are measured from the moment this class is
+ * loaded until the workbench shuts down. Caches count their lookups with
+ * <code>getCacheHits</code> and <code>getCacheMisses</code>, and their hit
+ * rate is reported next to the counters.
+ * </p>
+ */
+public class Metrics {
+
+	/**
+	 * A counter that only ever goes up, until it is reset.
+	 */
+	public static class Counter {
+
+		private final String fName;
+		private final AtomicLong fValue = new AtomicLong();
+
+		Counter(final String name) {
+			fName = name;
+		}
+
+		public void add(final long amount) {
+			fValue.addAndGet(amount);
+		}
+
+		public long get() {
+			return fValue.get();
+		}
+
+		public String getName() {
+			return fName;
+		}
+
+		public void increment() {
+			fValue.incrementAndGet();
+		}
+
+		void reset() {
+			fValue.set(0);
+		}
+	}
+
+	/**
+	 * Records the count, sum, minimum, maximum and last of a series of
+	 * values, and their distribution in buckets of powers of two to estimate
+	 * percentiles.
+	 */
+	public static class Histogram {
+
+		private final String fName;
+		private final String fUnit;
+		private final long[] fBuckets = new long[64];
+		private long fCount;
+		private long fSum;
+		private long fMin;
+		private long fMax;
+		private long fLast;
+
+		Histogram(final String name, final String unit) {
+			fName = name;
+			fUnit = unit;
+		}
+
+		public synchronized long getCount() {
+			return fCount;
+		}
+
+		public synchronized long getLast() {
+			return fLast;
+		}
+
+		public synchronized long getMax() {
+			return fMax;
+		}
+
+		public synchronized long getMean() {
+			return fCount == 0 ? 0 : fSum / fCount;
+		}
+
+		public synchronized long getMin() {
+			return fMin;
+		}
+
+		public String getName() {
+			return fName;
+		}
+
+		/**
+		 * Returns an upper bound of the given percentile of the recorded
+		 * values, from <code>0</code> to <code>100</code>. The estimate is
+		 * the end of the bucket holding the percentile, capped at the
+		 * maximum.
+		 */
+		public synchronized long getPercentile(final double percentile) {
+			if (fCount == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(fCount * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < fBuckets.length; i++) {
+				seen += fBuckets[i];
+				if (seen >= rank) {
+					return i == 0 ? 0 : Math.min(fMax, (1L << i) - 1);
+				}
+			}
+			return fMax;
+		}
+
+		public synchronized long getSum() {
+			return fSum;
+		}
+
+		/**
+		 * Returns the unit of the values, such as <code>ms</code> or
+		 * <code>files</code>.
+		 */
+		public String getUnit() {
+			return fUnit;
+		}
+
+		public synchronized void record(final long value) {
+			final long positive = Math.max(0, value);
+			if ((fCount == 0) || (positive < fMin)) {
+				fMin = positive;
+			}
+			if (positive > fMax) {
+				fMax = positive;
+			}
+			fCount++;
+			fSum += positive;
+			fLast = positive;
+			fBuckets[64 - Long.numberOfLeadingZeros(positive)]++;
+		}
+
+		synchronized void reset() {
+			for (int i = 0; i < fBuckets.length; i++) {
+				fBuckets[i] = 0;
+			}
+			fCount = 0;
+			fSum = 0;
+			fMin = 0;
+			fMax = 0;
+			fLast = 0;
+		}
+	}
+
+	/**
+	 * The columns of <code>getTable</code> and of the exported CSV.
+	 */
+	public static final String[] COLUMNS = { "Metric", "Unit", "Count", "Last", "Mean", "Min", "Max", "P90" };
+
+	public static final String DISCOVERY = "discovery";
+
+	private static final String CACHE_PREFIX = "cache.";
+	private static final String HITS_SUFFIX = ".hits";
+	private static final String MISSES_SUFFIX = ".misses";
+
+	private static final Map fCounters = new TreeMap();
+	private static final Map fHistograms = new TreeMap();
+
+	private static final PhaseEvent.IListener fPhaseRecorder = new PhaseEvent.IListener() {
+		public void phaseEnded(final PhaseEvent event) {
+			final String phase = event.getPhase();
+			getHistogram("phase." + phase, "ms").record(event.getDuration() / 1000000);
+			if (PhaseEvent.IMPORT.equals(phase)) {
+				getHistogram("import.files", "files").record(event.getFiles());
+				getHistogram("import.bytes", "bytes").record(event.getBytes());
+			} else if (PhaseEvent.COMPARE.equals(phase)) {
+				getHistogram("compare.files", "files").record(event.getFiles());
+			}
+		}
+	};
+
+	static {
+		PhaseEvent.addListener(fPhaseRecorder);
+	}
+
+	/**
+	 * Returns the counter of hits of the cache with the given name.
+	 */
+	public static Counter getCacheHits(final String cache) {
+		return getCounter(CACHE_PREFIX + cache + HITS_SUFFIX);
+	}
+
+	/**
+	 * Returns the counter of misses of the cache with the given name.
+	 */
+	public static Counter getCacheMisses(final String cache) {
+		return getCounter(CACHE_PREFIX + cache + MISSES_SUFFIX);
+	}
+
+	/**
+	 * Returns the counter with the given name, creating it if needed.
+	 */
+	public static Counter getCounter(final String name) {
+		synchronized (fCounters) {
+			Counter counter = (Counter) fCounters.get(name);
+			if (counter == null) {
+				counter = new Counter(name);
+				fCounters.put(name, counter);
+			}
+			return counter;
+		}
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it with the given
+	 * unit if needed.
+	 */
+	public static Histogram getHistogram(final String name, final String unit) {
+		synchronized (fHistograms) {
+			Histogram histogram = (Histogram) fHistograms.get(name);
+			if (histogram == null) {
+				histogram = new Histogram(name, unit);
+				fHistograms.put(name, histogram);
+			}
+			return histogram;
+		}
+	}
+
+	/**
+	 * Returns the current values of all metrics as rows of
+	 * <code>COLUMNS</code>, histograms first, then counters, then the hit
+	 * rate of every cache in percent.
+	 */
+	public static String[][] getTable() {
+		final List rows = new ArrayList();
+		final Histogram[] histograms;
+		synchronized (fHistograms) {
+			histograms = (Histogram[]) fHistograms.values().toArray(new Histogram[fHistograms.size()]);
+		}
+		for (int i = 0; i < histograms.length; i++) {
+			final Histogram histogram = histograms[i];
+			synchronized (histogram) {
+				rows.add(new String[] { histogram.getName(), histogram.getUnit(), String.valueOf(histogram.getCount()),
+						String.valueOf(histogram.getLast()), String.valueOf(histogram.getMean()), String.valueOf(histogram.getMin()),
+						String.valueOf(histogram.getMax()), String.valueOf(histogram.getPercentile(90)) });
+			}
+		}
+		final Counter[] counters;
+		synchronized (fCounters) {
+			counters = (Counter[]) fCounters.values().toArray(new Counter[fCounters.size()]);
+		}
+		final List rates = new ArrayList();
+		for (int i = 0; i < counters.length; i++) {
+			final String name = counters[i].getName();
+			rows.add(new String[] { name, "", String.valueOf(counters[i].get()), "", "", "", "", "" });
+			if (name.startsWith(CACHE_PREFIX) && name.endsWith(HITS_SUFFIX)) {
+				final String cache = name.substring(CACHE_PREFIX.length(), name.length() - HITS_SUFFIX.length());
+				final long hits = counters[i].get();
+				final long total = hits + getCacheMisses(cache).get();
+				final String rate = total == 0 ? "" : String.valueOf(hits * 100 / total);
+				rates.add(new String[] { CACHE_PREFIX + cache + ".hitRate", "%", String.valueOf(total), rate, "", "", "", "" });
+			}
+		}
+		rows.addAll(rates);
+		return (String[][]) rows.toArray(new String[rows.size()][]);
+	}
+
+	/**
+	 * Clears the values of all metrics.
+	 */
+	public static void reset() {
+		synchronized (fCounters) {
+			for (final Iterator i = fCounters.values().iterator(); i.hasNext();) {
+				((Counter) i.next()).reset();
+			}
+		}
+		synchronized (fHistograms) {
+			for (final Iterator i = fHistograms.values().iterator(); i.hasNext();) {
+				((Histogram) i.next()).reset();
+			}
+		}
+	}
+
+	/**
+	 * Writes the current values of all metrics as comma separated values,
+	 * with a header line of <code>COLUMNS</code>.
+	 */
+	public static void writeCsv(final Writer out) throws IOException {
+		writeCsvLine(out, COLUMNS);
+		final String[][] rows = getTable();
+		for (int i = 0; i < rows.length; i++) {
+			writeCsvLine(out, rows[i]);
+		}
+		out.flush();
+	}
+
+	private static void writeCsvLine(final Writer out, final String[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			final String value = values[i];
+			if ((value.indexOf(',') >= 0) || (value.indexOf('"') >= 0)) {
+				out.write('"');
+				out.write(value.replaceAll("\"", "\"\""));
+				out.write('"');
+			} else {
+				out.write(value);
+			}
+		}
+		out.write("\r\n");
+	}
+
+	private Metrics() {
+		// static only
+	}
+}
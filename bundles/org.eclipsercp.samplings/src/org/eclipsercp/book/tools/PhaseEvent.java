@@ -0,0 +1,301 @@
+package org.eclipsercp.book.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A timed phase of an import or compare, for example copying a project or
+ * preparing a compare input, with the sample it belongs to and the number of
+ * files and bytes it handled. Phases started while another phase is running
+ * in the same thread are nested in it and add their counts to it when they
+ * end.
+ * <p>
+ * Events are only measured while a recording is running or a listener is
+ * registered, such as the metrics, which listen as soon as they are loaded,
+ * or the trace while phases are traced. A recording is started with <code>startRecording</code> or
+ * with the <code>org.eclipsercp.samplings.recording</code> system property
+ * naming the file to write. Each ended event is written to the file as one
+ * line of tab separated values, so a session can be analyzed offline. When
+ * nothing is recording or listening, <code>begin</code> returns a shared
+ * inactive event and costs a field read.
+ * </p>
+ */
+public class PhaseEvent {
+
+	/**
+	 * Notified in the ending thread when a phase ends.
+	 */
+	public interface IListener {
+		void phaseEnded(PhaseEvent event);
+	}
+
+	public static final String BUILD_JOIN = "buildJoin";
+	public static final String COMPARE = "compare";
+	public static final String COPY = "copy";
+	public static final String CREATE_PROJECT = "createProject";
+	public static final String DELETE = "delete";
+	public static final String IMPORT = "import";
+	public static final String OPEN_EDITOR = "openEditor";
+	public static final String OPEN_PROJECT = "openProject";
+	public static final String PREPARE_INPUT = "prepareInput";
+	public static final String REOPEN = "reopen";
+
+	/**
+	 * The system property naming the file to record to from startup.
+	 */
+	public static final String RECORDING_PROPERTY = IConstants.PLUGIN_ID + ".recording";
+
+	private static final String HEADER = "start\tthread\tdepth\tphase\tsample\tdetail\tfiles\tbytes\tmicros";
+
+	private static final PhaseEvent INACTIVE = new PhaseEvent(null, null);
+
+	private static final ThreadLocal fCurrent = new ThreadLocal();
+
+	private static volatile boolean fEnabled;
+	private static volatile IListener[] fListeners = new IListener[0];
+	private static Writer fRecording;
+
+	static {
+		final String file = System.getProperty(RECORDING_PROPERTY);
+		if (file != null) {
+			try {
+				startRecording(new File(file));
+			} catch (final IOException e) {
+				// not recording
+			}
+		}
+	}
+
+	/**
+	 * Starts a phase in the current thread. The caller must call
+	 * <code>end</code>, typically in a <code>finally</code> block.
+	 */
+	public static PhaseEvent begin(final String phase) {
+		if (!fEnabled) {
+			return INACTIVE;
+		}
+		final PhaseEvent parent = (PhaseEvent) fCurrent.get();
+		final PhaseEvent event = new PhaseEvent(phase, parent);
+		fCurrent.set(event);
+		return event;
+	}
+
+	/**
+	 * Returns the innermost phase running in the current thread, or an
+	 * inactive event if there is none.
+	 */
+	public static PhaseEvent current() {
+		if (!fEnabled) {
+			return INACTIVE;
+		}
+		final PhaseEvent current = (PhaseEvent) fCurrent.get();
+		return current == null ? INACTIVE : current;
+	}
+
+	/**
+	 * Adds a listener notified of every ended phase. Phases are measured as
+	 * long as a listener is registered.
+	 */
+	public static synchronized void addListener(final IListener listener) {
+		final IListener[] listeners = new IListener[fListeners.length + 1];
+		System.arraycopy(fListeners, 0, listeners, 0, fListeners.length);
+		listeners[fListeners.length] = listener;
+		fListeners = listeners;
+		fEnabled = true;
+	}
+
+	public static boolean isEnabled() {
+		return fEnabled;
+	}
+
+	public static synchronized void removeListener(final IListener listener) {
+		final List list = new ArrayList(Arrays.asList(fListeners));
+		list.remove(listener);
+		fListeners = (IListener[]) list.toArray(new IListener[list.size()]);
+		fEnabled = (fRecording != null) || (fListeners.length > 0);
+	}
+
+	/**
+	 * Starts recording events to the given file, replacing its content and
+	 * stopping any previous recording.
+	 */
+	public static synchronized void startRecording(final File file) throws IOException {
+		stopRecording();
+		fRecording = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		fRecording.write(HEADER);
+		fRecording.write('\n');
+		fRecording.flush();
+		fEnabled = true;
+	}
+
+	/**
+	 * Stops recording and closes the recording file.
+	 */
+	public static synchronized void stopRecording() {
+		fEnabled = fListeners.length > 0;
+		if (fRecording != null) {
+			try {
+				fRecording.close();
+			} catch (final IOException e) {
+				// ignore
+			}
+			fRecording = null;
+		}
+	}
+
+	private static void notifyListeners(final PhaseEvent event) {
+		final IListener[] listeners = fListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].phaseEnded(event);
+		}
+	}
+
+	private static synchronized void record(final PhaseEvent event) {
+		if (fRecording == null) {
+			return;
+		}
+		try {
+			fRecording.write(event.toString());
+			fRecording.write('\n');
+			fRecording.flush();
+		} catch (final IOException e) {
+			stopRecording();
+		}
+	}
+
+	private final String phase;
+	private final PhaseEvent parent;
+	private final int depth;
+	private final long startTime;
+	private final long startNanos;
+	private long duration = -1;
+	private Float sample;
+	private String detail;
+	private int files;
+	private long bytes;
+
+	private PhaseEvent(final String phase, final PhaseEvent parent) {
+		this.phase = phase;
+		this.parent = parent;
+		depth = parent == null ? 0 : parent.depth + 1;
+		startTime = phase == null ? 0 : System.currentTimeMillis();
+		startNanos = phase == null ? 0 : System.nanoTime();
+		if (parent != null) {
+			sample = parent.sample;
+		}
+	}
+
+	/**
+	 * Adds the given number of bytes handled in this phase.
+	 */
+	public void addBytes(final long count) {
+		if (phase != null) {
+			bytes += count;
+		}
+	}
+
+	/**
+	 * Adds the given number of files handled in this phase.
+	 */
+	public void addFiles(final int count) {
+		if (phase != null) {
+			files += count;
+		}
+	}
+
+	/**
+	 * Ends this phase, adds its counts to the enclosing phase, records it and
+	 * notifies the listeners. Does nothing for an inactive event.
+	 */
+	public void end() {
+		if ((phase == null) || (duration >= 0)) {
+			return;
+		}
+		duration = System.nanoTime() - startNanos;
+		if (fCurrent.get() == this) {
+			fCurrent.set(parent);
+		}
+		if (parent != null) {
+			parent.files += files;
+			parent.bytes += bytes;
+		}
+		record(this);
+		notifyListeners(this);
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public String getDetail() {
+		return detail;
+	}
+
+	/**
+	 * Returns the number of phases enclosing this one, <code>0</code> for an
+	 * outermost phase.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the duration of this phase in nanoseconds, or <code>-1</code>
+	 * if it has not ended.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	public int getFiles() {
+		return files;
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+
+	public Float getSample() {
+		return sample;
+	}
+
+	public boolean isActive() {
+		return phase != null;
+	}
+
+	/**
+	 * Sets a short description of what the phase works on, such as a project
+	 * name.
+	 */
+	public void setDetail(final String value) {
+		if (phase != null) {
+			detail = value;
+		}
+	}
+
+	/**
+	 * Sets the number of the sample the phase works on. Nested phases inherit
+	 * the sample of the enclosing phase.
+	 */
+	public void setSample(final Float number) {
+		if (phase != null) {
+			sample = number;
+		}
+	}
+
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer(96);
+		buffer.append(startTime).append('\t').append(Thread.currentThread().getName()).append('\t').append(depth);
+		buffer.append('\t').append(phase).append('\t').append(sample == null ? "" : sample.toString());
+		buffer.append('\t').append(detail == null ? "" : detail.replace('\t', ' '));
+		buffer.append('\t').append(files).append('\t').append(bytes).append('\t').append(duration / 1000);
+		return buffer.toString();
+	}
+}
@@ -5,7 +5,6 @@ package org.eclipsercp.book.tools;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -53,6 +52,7 @@ public class Sample {
 	private final List projects = new ArrayList();
 	private final List imports = new ArrayList();
 	private String fileToOpen;
+	private volatile ChangeManifest changes;
 
 	Sample(final BundleLocation location) {
 		this.location = location;
@@ -65,13 +65,13 @@ public class Sample {
 	}
 
 	private void extractImports() {
-		final URL importsLocation = location.bundle.getEntry(location.location.append("imports.def").toString());
-		if (importsLocation == null) {
+		final String importsLocation = location.location.append("imports.def").toString();
+		if (!location.source.exists(importsLocation)) {
 			return;
 		}
 		InputStream in = null;
 		try {
-			in = importsLocation.openStream();
+			in = location.source.open(importsLocation);
 			final Properties props = new Properties();
 			props.load(in);
 			for (final Entry<Object, Object> e : props.entrySet()) {
@@ -114,6 +114,14 @@ public class Sample {
 		}
 	}
 
+	/**
+	 * Returns the changes relative to the previous sample, or
+	 * <code>null</code> if they have not been computed yet.
+	 */
+	public ChangeManifest getChanges() {
+		return changes;
+	}
+
 	public String getFileToOpen() {
 		return fileToOpen;
 	}
@@ -136,4 +144,8 @@ public class Sample {
 	public List getProjects() {
 		return projects;
 	}
+
+	public void setChanges(final ChangeManifest changes) {
+		this.changes = changes;
+	}
 }
@@ -0,0 +1,80 @@
+package org.eclipsercp.book.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A read-only tree of sample entries, for example the content of a bundle, a
+ * directory or a zip file. All discovery, copy and compare code reads samples
+ * through this interface so it does not depend on a running framework.
+ * <p>
+ * Paths use <code>/</code> as separator, are relative to the root of the
+ * source and never start with <code>/</code>. The paths of directories end
+ * with <code>/</code>, as returned by <code>Bundle.getEntryPaths</code>.
+ * The empty path is the root.
+ * </p>
+ */
+public interface SampleSource {
+
+	/**
+	 * Returns whether an entry exists at the given path.
+	 */
+	boolean exists(String path);
+
+	/**
+	 * Returns a string identifying this source and the version of its
+	 * content. Two sources with the same id have the same entries, so the id
+	 * can be used to key caches of derived data.
+	 */
+	String getId();
+
+	/**
+	 * Returns the time the content of this source was last modified, or
+	 * <code>0</code> if it is not known.
+	 */
+	long getLastModified();
+
+	/**
+	 * Returns a short human readable name for this source.
+	 */
+	String getName();
+
+	/**
+	 * Returns the size in bytes of the file at the given path, or
+	 * <code>-1</code> if the file does not exist or its size is not known
+	 * without reading it. Callers that are going to read the file anyway
+	 * should use the length of the content instead.
+	 */
+	long getSize(String path);
+
+	/**
+	 * Returns the paths of the immediate children of the directory at the given
+	 * path, or an empty array if it is not a directory. The order is not
+	 * specified.
+	 */
+	String[] list(String path);
+
+	/**
+	 * Returns the paths of all entries below the directory at the given path,
+	 * each directory directly followed by all entries below it, or an empty
+	 * array if it is not a directory. Walks of a whole tree should use this
+	 * method rather than <code>list</code>, sources may list a tree in bulk.
+	 */
+	String[] listTree(String path);
+
+	/**
+	 * Opens the file at the given path. The caller closes the stream.
+	 *
+	 * @throws java.io.FileNotFoundException
+	 *             if there is no file at the given path
+	 */
+	InputStream open(String path) throws IOException;
+
+	/**
+	 * Returns the whole content of the file at the given path.
+	 *
+	 * @throws java.io.FileNotFoundException
+	 *             if there is no file at the given path
+	 */
+	byte[] read(String path) throws IOException;
+}
@@ -1,6 +1,9 @@
 package org.eclipsercp.book.tools;
 
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -36,6 +39,8 @@ public class SamplesModel {
 
 	private Sample[] samples;
 
+	private volatile FileHistory fileHistory;
+
 	private BundleLocation location;
 
 	public SamplesModel() {
@@ -43,45 +48,60 @@ public class SamplesModel {
 	}
 
 	/*
-	 * Do a breadth-first search of the given bundle location looking for
-	 * projects.  Add any discovered projects to the given result.
+	 * Search the given sample location for projects, listing the whole tree at
+	 * once.  Add any discovered projects to the given result.
 	 */
 	private void collectProjectFiles(final SortedMap result, final BundleLocation base, final IProgressMonitor monitor) {
-		if (monitor.isCanceled()) {
-			return;
-		}
 		monitor.subTask("Reading " + base.location);
-		for (final Enumeration contents = base.bundle.getEntryPaths(base.location.toString()); (contents != null) && contents.hasMoreElements();) {
-			final String entry = (String) contents.nextElement();
-			// if the entry is a .project file then we have found a project so get
-			// the parent and record that as a project.
+		final String[] contents = base.source.listTree(base.location.toString());
+		// every folder holding a .project file, outer folders first
+		final List candidates = new ArrayList();
+		for (int i = 0; i < contents.length; i++) {
+			final String entry = contents[i];
 			if (!entry.endsWith("/") && entry.endsWith(IProjectDescription.DESCRIPTION_FILE_NAME)) {
-				// skip over any snippets folders
-				if (base.location.lastSegment().equals("snippets")) {
-					break;
-				}
-				final IPath projectLocation = new Path(entry).removeLastSegments(1);
-				final IPath sampleLocation = projectLocation.removeLastSegments(1);
-				if (sampleLocation.isEmpty()) {
-					continue;
-				}
-				Sample sample = (Sample) result.get(sampleLocation.toString());
-				if (sample == null) {
-					sample = new Sample(new BundleLocation(base.bundle, sampleLocation));
-					result.put(sampleLocation.toString(), sample);
-				}
-				sample.addProject(new BundleLocation(base.bundle, projectLocation));
-				// stop as soon as we find the first .project file since nested projects are not supported.
+				candidates.add(new Path(entry).removeLastSegments(1));
+			}
+		}
+		Collections.sort(candidates, new Comparator() {
+			public int compare(final Object o1, final Object o2) {
+				return ((IPath) o1).segmentCount() - ((IPath) o2).segmentCount();
+			}
+		});
+		final List projects = new ArrayList();
+		for (int i = 0; i < candidates.size(); i++) {
+			if (monitor.isCanceled()) {
 				return;
 			}
+			final IPath projectLocation = (IPath) candidates.get(i);
+			// skip over any snippets folders, the folders inside them are searched
+			if (projectLocation.lastSegment().equals("snippets") || isInside(projectLocation, projects)) {
+				continue;
+			}
+			final IPath sampleLocation = projectLocation.removeLastSegments(1);
+			if (sampleLocation.isEmpty()) {
+				continue;
+			}
+			// nested projects are not supported
+			projects.add(projectLocation);
+			Sample sample = (Sample) result.get(sampleLocation.toString());
+			if (sample == null) {
+				sample = new Sample(new BundleLocation(base.source, sampleLocation));
+				result.put(sampleLocation.toString(), sample);
+			}
+			sample.addProject(new BundleLocation(base.source, projectLocation));
 		}
-		// no project description found, so recurse into sub-directories
-		for (final Enumeration contents = base.bundle.getEntryPaths(base.location.toString()); (contents != null) && contents.hasMoreElements();) {
-			final String entry = (String) contents.nextElement();
-			if (entry.endsWith("/")) {
-				collectProjectFiles(result, new BundleLocation(base.bundle, new Path(entry)), monitor);
+	}
+
+	/*
+	 * Returns whether the given path is inside one of the given folders.
+	 */
+	private static boolean isInside(final IPath path, final List folders) {
+		for (int i = 0; i < folders.size(); i++) {
+			if (((IPath) folders.get(i)).isPrefixOf(path)) {
+				return true;
 			}
 		}
+		return false;
 	}
 
 	public Sample findSampleById(final Float number) {
@@ -94,10 +114,22 @@ public class SamplesModel {
 		return null;
 	}
 
+	/**
+	 * Returns the history of every sample file, or <code>null</code> if it has
+	 * not been computed yet.
+	 */
+	public FileHistory getFileHistory() {
+		return fileHistory;
+	}
+
 	public Sample[] getSamples() {
 		return samples;
 	}
 
+	public void setFileHistory(final FileHistory history) {
+		fileHistory = history;
+	}
+
 	public QualifiedName getTagId() {
 		return location.getId();
 	}
@@ -119,6 +151,11 @@ public class SamplesModel {
 		if (location == null) {
 			return;
 		}
+		final long start = System.nanoTime();
+		if (location.source instanceof DirectorySampleSource) {
+			// searching again should see the current content of the directory
+			((DirectorySampleSource) location.source).refresh();
+		}
 		monitor.beginTask("Searching", 100);
 		samples = new Sample[0];
 		final SortedMap result = new TreeMap();
@@ -126,5 +163,9 @@ public class SamplesModel {
 		collectProjectFiles(result, location, monitor);
 		samples = (Sample[]) result.values().toArray(new Sample[result.values().size()]);
 		monitor.done();
+		Metrics.getHistogram(Metrics.DISCOVERY, "ms").record((System.nanoTime() - start) / 1000000);
+		if (Trace.DEBUG_DISCOVERY) {
+			Trace.trace(Trace.DISCOVERY, "source=" + location.source.getId() + " location=" + location.location + " samples=" + samples.length + " ms=" + Trace.elapsed(start));
+		}
 	}
 }
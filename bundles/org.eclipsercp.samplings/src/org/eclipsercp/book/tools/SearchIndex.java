@@ -0,0 +1,456 @@
+package org.eclipsercp.book.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Platform;
+
+import org.eclipsercp.book.tools.compare.CompareFilter;
+import org.eclipsercp.book.tools.compare.ContentClassifier;
+
+/**
+ * An inverted index from the identifiers in the sample sources to the
+ * samples, files and lines they appear in. The index is built once per
+ * version of a <code>SampleSource</code> and saved in the plug-in state
+ * location, so that queries never read sample entries.
+ * <p>
+ * Identifiers are indexed in lower case; a query matches an identifier
+ * exactly, or as a prefix if it ends with <code>*</code>. Several words in a
+ * query must all appear on the same line.
+ * </p>
+ */
+public class SearchIndex {
+
+	/**
+	 * A line in a sample file matching a query.
+	 */
+	public static class Match {
+		private final Float sampleNumber;
+		private final String path;
+		private final int line;
+
+		Match(final Float sampleNumber, final String path, final int line) {
+			this.sampleNumber = sampleNumber;
+			this.path = path;
+			this.line = line;
+		}
+
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * Returns the path of the file relative to the sample, starting with
+		 * the project name.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public Float getSampleNumber() {
+			return sampleNumber;
+		}
+
+		public String toString() {
+			return "Sample " + sampleNumber + ": " + path + ':' + line;
+		}
+	}
+
+	/*
+	 * A growing list of (file, line) pairs.
+	 */
+	private static class Postings {
+		int[] entries = new int[8];
+		int size;
+
+		void add(final int file, final int line) {
+			if ((size > 0) && (entries[size - 2] == file) && (entries[size - 1] == line)) {
+				// the same identifier twice on one line
+				return;
+			}
+			if (size + 2 > entries.length) {
+				final int[] grown = new int[entries.length * 2];
+				System.arraycopy(entries, 0, grown, 0, size);
+				entries = grown;
+			}
+			entries[size++] = file;
+			entries[size++] = line;
+		}
+
+		int[] toArray() {
+			final int[] result = new int[size];
+			System.arraycopy(entries, 0, result, 0, size);
+			return result;
+		}
+	}
+
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Files larger than this are not indexed.
+	 */
+	private static final int MAX_FILE_SIZE = 1024 * 1024;
+
+	/**
+	 * Identifiers longer than this, such as encoded data, are not indexed. It
+	 * also keeps every token well within what <code>writeUTF</code> can save.
+	 */
+	private static final int MAX_TOKEN_LENGTH = 255;
+
+	private static final Comparator MATCH_ORDER = new Comparator() {
+		public int compare(final Object o1, final Object o2) {
+			final Match m1 = (Match) o1;
+			final Match m2 = (Match) o2;
+			int result = Float.compare(m1.sampleNumber.floatValue(), m2.sampleNumber.floatValue());
+			if (result == 0) {
+				result = m1.path.compareTo(m2.path);
+			}
+			if (result == 0) {
+				result = m1.line - m2.line;
+			}
+			return result;
+		}
+	};
+
+	/**
+	 * Returns the index for the samples of the given model, loading it from the
+	 * state location if it was saved for the same version of the source,
+	 * otherwise building and saving it.
+	 *
+	 * @longOp reads every sample file the first time
+	 */
+	public static SearchIndex getIndex(final SamplesModel model, final SampleSource source, final IProgressMonitor monitor) {
+		final String key = source.getId() + '_' + source.getLastModified();
+		final long start = System.nanoTime();
+		final File file = getIndexFile(source);
+		if (file != null) {
+			final SearchIndex saved = load(file, key);
+			if (saved != null) {
+				Metrics.getCacheHits("searchIndex").increment();
+				if (Trace.DEBUG_CACHE) {
+					Trace.trace(Trace.CACHE, "cache=searchIndex hit=true key=" + key + " ms=" + Trace.elapsed(start));
+				}
+				return saved;
+			}
+		}
+		Metrics.getCacheMisses("searchIndex").increment();
+		final SearchIndex index = new SearchIndex(key);
+		index.build(model, monitor);
+		if (file != null) {
+			try {
+				index.save(file);
+			} catch (final IOException e) {
+				// the index is rebuilt next time
+				file.delete();
+			}
+		}
+		if (Trace.DEBUG_CACHE) {
+			Trace.trace(Trace.CACHE, "cache=searchIndex hit=false key=" + key + " files=" + index.filePaths.size() + " ms=" + Trace.elapsed(start));
+		}
+		return index;
+	}
+
+	private static File getIndexFile(final SampleSource source) {
+		try {
+			final IPath state = Platform.getStateLocation(Platform.getBundle(IConstants.PLUGIN_ID));
+			return state.append("search-" + source.getName().replaceAll("[^\\w.-]", "_") + ".index").toFile();
+		} catch (final IllegalStateException e) {
+			// no instance location
+			return null;
+		}
+	}
+
+	private static SearchIndex load(final File file, final String key) {
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if ((in.readInt() != FORMAT_VERSION) || !key.equals(in.readUTF())) {
+				return null;
+			}
+			final SearchIndex index = new SearchIndex(key);
+			final int fileCount = in.readInt();
+			for (int i = 0; i < fileCount; i++) {
+				index.fileSamples.add(new Float(in.readFloat()));
+				index.filePaths.add(in.readUTF());
+			}
+			final int tokenCount = in.readInt();
+			index.tokens = new HashMap(tokenCount * 4 / 3 + 1);
+			for (int i = 0; i < tokenCount; i++) {
+				final String token = in.readUTF();
+				final int[] entries = new int[in.readInt()];
+				for (int j = 0; j < entries.length; j++) {
+					entries[j] = in.readInt();
+				}
+				index.tokens.put(token, entries);
+			}
+			return index;
+		} catch (final IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/*
+	 * Splits the given query into lower case words.
+	 */
+	private static String[] tokenize(final String text) {
+		final List result = new ArrayList();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			final char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isJavaIdentifierPart(c) || (c == '*')) {
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				result.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	private final String key;
+	private final List fileSamples = new ArrayList();
+	private final List filePaths = new ArrayList();
+	private Map tokens = new HashMap();
+
+	private SearchIndex(final String key) {
+		this.key = key;
+	}
+
+	private void build(final SamplesModel model, final IProgressMonitor monitor) {
+		final Sample[] samples = model.getSamples();
+		if (samples == null) {
+			return;
+		}
+		monitor.beginTask("Indexing samples", samples.length);
+		try {
+			final Map postings = new HashMap();
+			for (int i = 0; i < samples.length; i++) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				final BundleLocation location = samples[i].getLocation();
+				monitor.subTask(location.location.lastSegment());
+				final String base = location.location.toString();
+				indexSample(samples[i], base, CompareFilter.getFilter(location.source), postings);
+				monitor.worked(1);
+			}
+			tokens = new HashMap(postings.size() * 4 / 3 + 1);
+			for (final Iterator i = postings.entrySet().iterator(); i.hasNext();) {
+				final Map.Entry entry = (Map.Entry) i.next();
+				tokens.put(entry.getKey(), ((Postings) entry.getValue()).toArray());
+			}
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/*
+	 * Adds the identifiers of the given file content to the postings, one
+	 * posting per identifier and line.
+	 */
+	private void indexContent(final byte[] content, final int file, final Map postings) {
+		int line = 1;
+		int start = -1;
+		for (int i = 0; i <= content.length; i++) {
+			final char c = i < content.length ? (char) (content[i] & 0xFF) : ' ';
+			if ((c < 128) && Character.isJavaIdentifierPart(c) && (c != 0)) {
+				if (start < 0) {
+					start = i;
+				}
+				continue;
+			}
+			if (start >= 0) {
+				if ((i - start <= MAX_TOKEN_LENGTH) && !Character.isDigit((char) content[start])) {
+					final String token = new String(content, start, i - start).toLowerCase();
+					Postings list = (Postings) postings.get(token);
+					if (list == null) {
+						list = new Postings();
+						postings.put(token, list);
+					}
+					list.add(file, line);
+				}
+				start = -1;
+			}
+			if (c == '\n') {
+				line++;
+			}
+		}
+	}
+
+	private void indexSample(final Sample sample, final String base, final CompareFilter filter, final Map postings) {
+		final SampleSource source = sample.getLocation().source;
+		final String[] entries = source.listTree(base);
+		// the entries below a filtered folder follow it
+		String filtered = null;
+		for (int i = 0; i < entries.length; i++) {
+			final String entry = entries[i];
+			if ((filtered != null) && entry.startsWith(filtered)) {
+				continue;
+			}
+			final boolean directory = entry.endsWith("/");
+			final String relative = entry.substring(base.length() + (entry.startsWith("/", base.length()) ? 1 : 0), entry.length() - (directory ? 1 : 0));
+			if (filter.isFiltered(relative, directory)) {
+				filtered = directory ? entry : filtered;
+				continue;
+			}
+			if (directory) {
+				continue;
+			}
+			if (ContentClassifier.classifyName(relative) == ContentClassifier.BINARY) {
+				continue;
+			}
+			if (source.getSize(entry) > MAX_FILE_SIZE) {
+				continue;
+			}
+			try {
+				final byte[] content = source.read(entry);
+				if (content.length > MAX_FILE_SIZE) {
+					continue;
+				}
+				if (ContentClassifier.isBinaryContent(content, Math.min(content.length, 512))) {
+					continue;
+				}
+				final int file = filePaths.size();
+				fileSamples.add(sample.getNumber());
+				filePaths.add(relative);
+				indexContent(content, file, postings);
+			} catch (final IOException e) {
+				// skip the file
+			}
+		}
+	}
+
+	/*
+	 * Returns the (file, line) pairs of all identifiers matching the given
+	 * word, sorted by file and line.
+	 */
+	private int[] lookup(final String word) {
+		if (!word.endsWith("*")) {
+			final int[] entries = (int[]) tokens.get(word);
+			return entries == null ? new int[0] : entries;
+		}
+		final String prefix = word.substring(0, word.length() - 1);
+		// merge the lists of all matching identifiers as (file << 32 | line)
+		long[] pairs = new long[64];
+		int size = 0;
+		for (final Iterator i = tokens.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry entry = (Map.Entry) i.next();
+			if (((String) entry.getKey()).startsWith(prefix)) {
+				final int[] entries = (int[]) entry.getValue();
+				if (size + entries.length / 2 > pairs.length) {
+					final long[] grown = new long[Math.max(pairs.length * 2, size + entries.length / 2)];
+					System.arraycopy(pairs, 0, grown, 0, size);
+					pairs = grown;
+				}
+				for (int j = 0; j < entries.length; j += 2) {
+					pairs[size++] = ((long) entries[j] << 32) | entries[j + 1];
+				}
+			}
+		}
+		Arrays.sort(pairs, 0, size);
+		final Postings merged = new Postings();
+		for (int i = 0; i < size; i++) {
+			merged.add((int) (pairs[i] >>> 32), (int) pairs[i]);
+		}
+		return merged.toArray();
+	}
+
+	/**
+	 * Returns the lines containing all words of the given query, sorted by
+	 * sample number, path and line.
+	 */
+	public Match[] find(final String query) {
+		final String[] words = tokenize(query);
+		if (words.length == 0) {
+			return new Match[0];
+		}
+		int[] result = lookup(words[0]);
+		for (int i = 1; (i < words.length) && (result.length > 0); i++) {
+			result = intersect(result, lookup(words[i]));
+		}
+		final Match[] matches = new Match[result.length / 2];
+		for (int i = 0; i < matches.length; i++) {
+			final int file = result[i * 2];
+			matches[i] = new Match((Float) fileSamples.get(file), (String) filePaths.get(file), result[i * 2 + 1]);
+		}
+		Arrays.sort(matches, MATCH_ORDER);
+		return matches;
+	}
+
+	/*
+	 * Returns the (file, line) pairs found in both sorted lists.
+	 */
+	private static int[] intersect(final int[] a, final int[] b) {
+		final Postings result = new Postings();
+		int i = 0;
+		int j = 0;
+		while ((i < a.length) && (j < b.length)) {
+			final int c = a[i] != b[j] ? a[i] - b[j] : a[i + 1] - b[j + 1];
+			if (c == 0) {
+				result.add(a[i], a[i + 1]);
+				i += 2;
+				j += 2;
+			} else if (c < 0) {
+				i += 2;
+			} else {
+				j += 2;
+			}
+		}
+		return result.toArray();
+	}
+
+	private void save(final File file) throws IOException {
+		file.getParentFile().mkdirs();
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(key);
+			out.writeInt(filePaths.size());
+			for (int i = 0; i < filePaths.size(); i++) {
+				out.writeFloat(((Float) fileSamples.get(i)).floatValue());
+				out.writeUTF((String) filePaths.get(i));
+			}
+			out.writeInt(tokens.size());
+			for (final Iterator i = tokens.entrySet().iterator(); i.hasNext();) {
+				final Map.Entry entry = (Map.Entry) i.next();
+				final int[] entries = (int[]) entry.getValue();
+				out.writeUTF((String) entry.getKey());
+				out.writeInt(entries.length);
+				for (int j = 0; j < entries.length; j++) {
+					out.writeInt(entries[j]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
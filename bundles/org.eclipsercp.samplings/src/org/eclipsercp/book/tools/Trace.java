@@ -0,0 +1,153 @@
+package org.eclipsercp.book.tools;
+
+import java.util.Hashtable;
+
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugOptionsListener;
+import org.eclipse.osgi.service.debug.DebugTrace;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * The trace points of the samples plug-in, enabled through the
+ * <code>.options</code> file of the plug-in or the Tracing tab of a launch
+ * configuration. Each trace point is a static flag that is updated when the
+ * debug options change, so callers guard their trace calls with a field read:
+ *
+ * <pre>
+ * if (Trace.DEBUG_DISCOVERY) {
+ * 	Trace.trace(Trace.DISCOVERY, &quot;samples=&quot; + count);
+ * }
+ * </pre>
+ * <p>
+ * The import, copy and compare trace points log one timing line for every
+ * ended <code>PhaseEvent</code> of their kind. Lines are made of
+ * <code>key=value</code> pairs separated by spaces, so they can be filtered
+ * and summed with the usual text tools.
+ * </p>
+ */
+public class Trace implements DebugOptionsListener {
+
+	public static final String CACHE = "/debug/cache";
+	public static final String COMPARE = "/debug/compare";
+	public static final String COPY = "/debug/copy";
+	public static final String DISCOVERY = "/debug/discovery";
+	public static final String IMPORT = "/debug/import";
+
+	private static final String DEBUG = "/debug";
+
+	public static boolean DEBUG_CACHE = false;
+	public static boolean DEBUG_COMPARE = false;
+	public static boolean DEBUG_COPY = false;
+	public static boolean DEBUG_DISCOVERY = false;
+	public static boolean DEBUG_IMPORT = false;
+
+	private static final PhaseEvent.IListener fPhaseTracer = new PhaseEvent.IListener() {
+		public void phaseEnded(final PhaseEvent event) {
+			final String option = getOption(event.getPhase());
+			if (option != null) {
+				trace(option, format(event));
+			}
+		}
+	};
+
+	private static volatile DebugTrace fTrace;
+	private static boolean fTracingPhases;
+
+	static {
+		final Bundle bundle = FrameworkUtil.getBundle(Trace.class);
+		final BundleContext context = bundle == null ? null : bundle.getBundleContext();
+		if (context != null) {
+			final Hashtable properties = new Hashtable();
+			properties.put(DebugOptions.LISTENER_SYMBOLICNAME, IConstants.PLUGIN_ID);
+			context.registerService(DebugOptionsListener.class.getName(), new Trace(), properties);
+		}
+	}
+
+	/**
+	 * Returns the time elapsed since the given <code>System.nanoTime</code>
+	 * in milliseconds, with three decimals.
+	 */
+	public static String elapsed(final long startNanos) {
+		return toMillis(System.nanoTime() - startNanos);
+	}
+
+	private static String format(final PhaseEvent event) {
+		final StringBuffer buffer = new StringBuffer(96);
+		buffer.append("phase=").append(event.getPhase());
+		if (event.getSample() != null) {
+			buffer.append(" sample=").append(event.getSample());
+		}
+		if (event.getDetail() != null) {
+			buffer.append(" detail=").append(event.getDetail().replace(' ', '_'));
+		}
+		buffer.append(" depth=").append(event.getDepth());
+		buffer.append(" files=").append(event.getFiles());
+		buffer.append(" bytes=").append(event.getBytes());
+		buffer.append(" ms=").append(toMillis(event.getDuration()));
+		return buffer.toString();
+	}
+
+	/*
+	 * Returns the trace point logging the given phase, or null if it is not
+	 * enabled.
+	 */
+	private static String getOption(final String phase) {
+		if (PhaseEvent.COPY.equals(phase)) {
+			return DEBUG_COPY ? COPY : null;
+		}
+		if (PhaseEvent.COMPARE.equals(phase) || PhaseEvent.PREPARE_INPUT.equals(phase)) {
+			return DEBUG_COMPARE ? COMPARE : null;
+		}
+		return DEBUG_IMPORT ? IMPORT : null;
+	}
+
+	private static String toMillis(final long nanos) {
+		final long micros = nanos / 1000;
+		final String fraction = String.valueOf(1000 + (micros % 1000)).substring(1);
+		return (micros / 1000) + "." + fraction;
+	}
+
+	/**
+	 * Logs the given message for the given trace point, which should be
+	 * checked to be enabled first.
+	 */
+	public static void trace(final String option, final String message) {
+		final DebugTrace trace = fTrace;
+		if (trace != null) {
+			trace.trace(option, message);
+		}
+	}
+
+	private Trace() {
+		// registered once
+	}
+
+	public void optionsChanged(final DebugOptions options) {
+		fTrace = options.newDebugTrace(IConstants.PLUGIN_ID, Trace.class);
+		final boolean debug = options.getBooleanOption(IConstants.PLUGIN_ID + DEBUG, false);
+		DEBUG_CACHE = debug && options.getBooleanOption(IConstants.PLUGIN_ID + CACHE, false);
+		DEBUG_COMPARE = debug && options.getBooleanOption(IConstants.PLUGIN_ID + COMPARE, false);
+		DEBUG_COPY = debug && options.getBooleanOption(IConstants.PLUGIN_ID + COPY, false);
+		DEBUG_DISCOVERY = debug && options.getBooleanOption(IConstants.PLUGIN_ID + DISCOVERY, false);
+		DEBUG_IMPORT = debug && options.getBooleanOption(IConstants.PLUGIN_ID + IMPORT, false);
+		updatePhaseTracing(DEBUG_COMPARE || DEBUG_COPY || DEBUG_IMPORT);
+	}
+
+	/*
+	 * Only listens to phases while they are traced, so phases are not
+	 * measured for tracing otherwise.
+	 */
+	private static synchronized void updatePhaseTracing(final boolean enabled) {
+		if (enabled != fTracingPhases) {
+			fTracingPhases = enabled;
+			if (enabled) {
+				PhaseEvent.addListener(fPhaseTracer);
+			} else {
+				PhaseEvent.removeListener(fPhaseTracer);
+			}
+		}
+	}
+}
@@ -22,13 +22,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Enumeration;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.OperationCanceledException;
-import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.dialogs.ErrorDialog;
@@ -45,21 +45,33 @@ import org.eclipse.ui.PlatformUI;
 public class Utils {
 
 	public static void copy(final BundleLocation location, final File destination, final boolean overwrite, final IProgressMonitor monitor) throws IOException {
+		final PhaseEvent event = PhaseEvent.begin(PhaseEvent.COPY);
+		event.setDetail(location.location.lastSegment());
+		try {
+			copy(location, destination, overwrite, event, monitor);
+		} finally {
+			event.end();
+		}
+	}
+
+	private static void copy(final BundleLocation location, final File destination, final boolean overwrite, final PhaseEvent event, final IProgressMonitor monitor) throws IOException {
 		// the length of the prefix to trim off
-		final int rootLength = location.location.toString().length();
+		final String root = location.location.toString();
+		final int rootLength = root.length();
 		destination.mkdirs();
-		for (final Enumeration e = location.getEntries(); (null != e) && e.hasMoreElements();) {
+		final String[] entries = location.source.listTree(root);
+		for (int i = 0; i < entries.length; i++) {
 			if (monitor.isCanceled()) {
 				return;
 			}
-			final String entry = (String) e.nextElement();
+			final String entry = entries[i];
 			if (entry.endsWith("/")) {
-				final Path entryPath = new Path(entry);
-				copy(new BundleLocation(location.bundle, entryPath), new File(destination, entryPath.lastSegment()), overwrite, monitor);
+				new File(destination, entry.substring(rootLength)).mkdirs();
 			} else {
 				final OutputStream out = new FileOutputStream(new File(destination, entry.substring(rootLength)));
-				final InputStream in = location.bundle.getEntry(entry).openStream();
-				copyStream(new BufferedInputStream(in), true, new BufferedOutputStream(out), true);
+				final InputStream in = location.source.open(entry);
+				event.addBytes(copyStream(new BufferedInputStream(in), true, new BufferedOutputStream(out), true));
+				event.addFiles(1);
 			}
 		}
 	}
@@ -91,6 +103,111 @@ public class Utils {
 		}
 	}
 
+	/**
+	 * Compute the MD5 digest of the given input stream and close it. The
+	 * content is streamed through a fixed size buffer.
+	 */
+	public static byte[] digest(final InputStream in) throws IOException {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final byte[] buffer = new byte[16 * 1024];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, len);
+			}
+			return digest.digest();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Compute the MD5 digest of the whitespace normalized content of the given
+	 * input stream and close it. Within each line leading and trailing
+	 * whitespace, including carriage returns, is dropped and every run of
+	 * whitespace between two tokens counts as a single separator, so texts
+	 * that only differ in indentation or trailing spaces have the same
+	 * digest. Line feeds are kept, so joining or splitting lines changes the
+	 * digest, as it does for the line based compare of the content viewer.
+	 */
+	public static byte[] normalizedDigest(final InputStream in) throws IOException {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final byte[] buffer = new byte[16 * 1024];
+			final byte[] out = new byte[buffer.length * 2];
+			boolean inToken = false;
+			boolean separator = false;
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				int size = 0;
+				for (int i = 0; i < len; i++) {
+					final byte b = buffer[i];
+					if (b == '\n') {
+						out[size++] = b;
+						inToken = false;
+						separator = false;
+					} else if ((b == ' ') || (b == '\t') || (b == '\r') || (b == '\f') || (b == 0x0B)) {
+						separator = inToken;
+					} else {
+						if (separator) {
+							out[size++] = ' ';
+							separator = false;
+						}
+						out[size++] = b;
+						inToken = true;
+					}
+				}
+				digest.update(out, 0, size);
+			}
+			return digest.digest();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the given input stream fully and close it. If <code>length</code> is
+	 * not negative it is used as the expected size of the content so that the
+	 * result can be read straight into an exactly sized buffer. Streams that
+	 * turn out to be shorter or longer than expected are handled correctly.
+	 */
+	public static byte[] readStream(final InputStream in, final int length) throws IOException {
+		try {
+			byte[] result = new byte[length >= 0 ? length : 16 * 1024];
+			int size = 0;
+			while (true) {
+				if (size == result.length) {
+					// expected size reached, check for any trailing bytes
+					final int next = in.read();
+					if (next == -1) {
+						break;
+					}
+					final byte[] grown = new byte[Math.max(result.length * 2, 16 * 1024)];
+					System.arraycopy(result, 0, grown, 0, size);
+					result = grown;
+					result[size++] = (byte) next;
+				}
+				final int len = in.read(result, size, result.length - size);
+				if (len == -1) {
+					break;
+				}
+				size += len;
+			}
+			if (size == result.length) {
+				return result;
+			}
+			final byte[] trimmed = new byte[size];
+			System.arraycopy(result, 0, trimmed, 0, size);
+			return trimmed;
+		} finally {
+			in.close();
+		}
+	}
+
 	/**
 	 * @return
 	 */
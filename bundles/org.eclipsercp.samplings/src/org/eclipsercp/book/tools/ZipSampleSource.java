@@ -0,0 +1,76 @@
+package org.eclipsercp.book.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The entries of a zip or jar file. The central directory is read once when
+ * the source is opened, so listing never touches the file again. Directories
+ * without an entry of their own are implied by the paths of their files.
+ */
+public class ZipSampleSource extends AbstractSampleSource {
+
+	private final File file;
+	private final ZipFile zip;
+	private final Map children = new HashMap();
+
+	public ZipSampleSource(final File file) throws IOException {
+		this.file = file.getAbsoluteFile();
+		zip = new ZipFile(file);
+		for (final Enumeration e = zip.entries(); e.hasMoreElements();) {
+			addEntry(children, toEntryPath(((ZipEntry) e.nextElement()).getName()));
+		}
+	}
+
+	/**
+	 * Closes the zip file. The source cannot be read afterwards.
+	 */
+	public void close() throws IOException {
+		zip.close();
+	}
+
+	public boolean exists(final String path) {
+		final String entry = toEntryPath(path);
+		return (zip.getEntry(entry) != null) || children.containsKey(toDirectoryPath(entry));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getId() {
+		return "zip:" + file.getPath() + '_' + file.lastModified();
+	}
+
+	public long getLastModified() {
+		return file.lastModified();
+	}
+
+	public String getName() {
+		return file.getName();
+	}
+
+	public long getSize(final String path) {
+		final ZipEntry entry = zip.getEntry(toEntryPath(path));
+		return (entry == null) || entry.isDirectory() ? -1 : entry.getSize();
+	}
+
+	public String[] list(final String path) {
+		return list(children, path);
+	}
+
+	public InputStream open(final String path) throws IOException {
+		final ZipEntry entry = zip.getEntry(toEntryPath(path));
+		if ((entry == null) || entry.isDirectory()) {
+			throw new FileNotFoundException(path);
+		}
+		return zip.getInputStream(entry);
+	}
+}
@@ -4,10 +4,14 @@ import org.eclipse.compare.CompareConfiguration;
 import org.eclipse.compare.CompareUI;
 import org.eclipse.compare.structuremergeviewer.IStructureComparator;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
 
+import org.eclipsercp.book.tools.ChangeManifest;
 import org.eclipsercp.book.tools.Sample;
 import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.compare.CompareFilter;
 import org.eclipsercp.book.tools.compare.ResourceToFileCompareInput;
+import org.eclipsercp.book.tools.compare.SampleCompareInput;
 import org.eclipsercp.book.tools.compare.SampleStructureCreator;
 
 public class CompareSamplesOperation {
@@ -19,15 +23,61 @@ public class CompareSamplesOperation {
 	}
 
 	public void run(final Sample firstElement) {
+		run(firstElement, null);
+	}
+
+	/**
+	 * Compares the workspace with the given sample, restricted to the given
+	 * projects or folders. Only the resources and sample entries inside the
+	 * scope are enumerated.
+	 * 
+	 * @param firstElement
+	 *            the sample
+	 * @param scope
+	 *            paths starting with a project name, or <code>null</code> to
+	 *            compare everything
+	 */
+	public void run(final Sample firstElement, final IPath[] scope) {
 		final CompareConfiguration cc = new CompareConfiguration();
 		// TODO it is unclear why we are always comparing to number 1?
 		final ResourceToFileCompareInput input = new ResourceToFileCompareInput(SamplesModel.getCurrentSampleNumber(), firstElement.getNumber(), cc);
 
 		// Get the path within the zip file to use as the comparison base
 		final SampleStructureCreator creator = new SampleStructureCreator(samples);
-		final IStructureComparator comparator = creator.getStructure(firstElement);
+		final IStructureComparator comparator = creator.getStructure(firstElement, scope);
+		input.setLazy(true);
+		input.setFilter(CompareFilter.getFilter(firstElement.getLocation().source));
+		input.setScope(scope);
 		input.setSelection(ResourcesPlugin.getWorkspace().getRoot(), comparator);
 
 		CompareUI.openCompareEditor(input);
 	}
+
+	/**
+	 * Compares two samples directly with each other. The sample with the lower
+	 * number is shown on the left.
+	 */
+	public void run(final Sample first, final Sample second) {
+		run(first, second, null);
+	}
+
+	/**
+	 * Compares the given files or folders of two samples with each other. Only
+	 * the sample entries inside the scope are enumerated.
+	 * 
+	 * @param scope
+	 *            paths starting with a project name, or <code>null</code> to
+	 *            compare everything
+	 */
+	public void run(final Sample first, final Sample second, final IPath[] scope) {
+		final Sample left = first.getNumber().compareTo(second.getNumber()) <= 0 ? first : second;
+		final Sample right = left == first ? second : first;
+		final SampleStructureCreator creator = new SampleStructureCreator(samples);
+		final SampleCompareInput input = new SampleCompareInput(left, creator.getStructure(left, scope), right, creator.getStructure(right, scope), new CompareConfiguration());
+		final ChangeManifest changes = right.getChanges();
+		if ((changes != null) && changes.getPreviousNumber().equals(left.getNumber())) {
+			input.setChanges(changes);
+		}
+		CompareUI.openCompareEditor(input);
+	}
 }
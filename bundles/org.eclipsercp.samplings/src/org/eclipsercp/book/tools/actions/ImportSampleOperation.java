@@ -50,6 +50,7 @@ import org.osgi.service.prefs.Preferences;
 
 import org.eclipsercp.book.tools.BundleLocation;
 import org.eclipsercp.book.tools.IConstants;
+import org.eclipsercp.book.tools.PhaseEvent;
 import org.eclipsercp.book.tools.Sample;
 import org.eclipsercp.book.tools.Sample.ProjectImport;
 import org.eclipsercp.book.tools.SamplesModel;
@@ -106,7 +107,13 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 				}
 
 				prompted = true;
-				project.delete(true, true, new SubProgressMonitor(subDeleteMonitor, 100));
+				final PhaseEvent event = PhaseEvent.begin(PhaseEvent.DELETE);
+				event.setDetail(project.getName());
+				try {
+					project.delete(true, true, new SubProgressMonitor(subDeleteMonitor, 100));
+				} finally {
+					event.end();
+				}
 			}
 		}
 		subDeleteMonitor.done();
@@ -154,20 +161,38 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 		final URL instanceLocation = Platform.getInstanceLocation().getURL();
 		try {
 			if (project.exists()) {
-				if (!project.isOpen()) {
-					project.open(null);
+				final PhaseEvent event = PhaseEvent.begin(PhaseEvent.DELETE);
+				event.setDetail(projectName);
+				try {
+					if (!project.isOpen()) {
+						project.open(null);
+					}
+					project.delete(true, null);
+				} finally {
+					event.end();
 				}
-				project.delete(true, null);
 			}
 			final File projectDir = new File(instanceLocation.getPath(), projectName);
 			projectDir.mkdirs();
 			Utils.copy(record, projectDir, true, monitor);
 			description.setLocation(null);
-			project.create(description, new SubProgressMonitor(monitor, 1000));
+			PhaseEvent event = PhaseEvent.begin(PhaseEvent.CREATE_PROJECT);
+			event.setDetail(projectName);
+			try {
+				project.create(description, new SubProgressMonitor(monitor, 1000));
+			} finally {
+				event.end();
+			}
 			if (monitor.isCanceled()) {
 				throw new OperationCanceledException();
 			}
-			project.open(IResource.BACKGROUND_REFRESH, new SubProgressMonitor(monitor, 1000));
+			event = PhaseEvent.begin(PhaseEvent.OPEN_PROJECT);
+			event.setDetail(projectName);
+			try {
+				project.open(IResource.BACKGROUND_REFRESH, new SubProgressMonitor(monitor, 1000));
+			} finally {
+				event.end();
+			}
 			if (updateProperty) {
 				project.setPersistentProperty(IConstants.SAMPLE_NUMBER_KEY, sample.getNumber().toString());
 			}
@@ -193,6 +218,8 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 
 	private void importSample(final Sample sample, final IProgressMonitor monitor) throws CoreException, InvocationTargetException, InterruptedException {
 		final boolean prompted = false;
+		final PhaseEvent importEvent = PhaseEvent.begin(PhaseEvent.IMPORT);
+		importEvent.setSample(sample.getNumber());
 		try {
 			monitor.beginTask("Importing", 100);
 
@@ -256,8 +283,13 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 			// compile errors, close and re-open them.
 			try {
 				final IJobManager jobManager = Job.getJobManager();
-				jobManager.join(ResourcesPlugin.FAMILY_MANUAL_BUILD, monitor);
-				jobManager.join(ResourcesPlugin.FAMILY_AUTO_BUILD, monitor);
+				final PhaseEvent joinEvent = PhaseEvent.begin(PhaseEvent.BUILD_JOIN);
+				try {
+					jobManager.join(ResourcesPlugin.FAMILY_MANUAL_BUILD, monitor);
+					jobManager.join(ResourcesPlugin.FAMILY_AUTO_BUILD, monitor);
+				} finally {
+					joinEvent.end();
+				}
 
 				final IWorkspaceRunnable closeRunnable = new IWorkspaceRunnable() {
 					public void run(final IProgressMonitor monitor) throws CoreException {
@@ -286,8 +318,13 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 						}
 					}
 				};
-				ResourcesPlugin.getWorkspace().run(closeRunnable, new NullProgressMonitor());
-				ResourcesPlugin.getWorkspace().run(openRunnable, new NullProgressMonitor());
+				final PhaseEvent reopenEvent = PhaseEvent.begin(PhaseEvent.REOPEN);
+				try {
+					ResourcesPlugin.getWorkspace().run(closeRunnable, new NullProgressMonitor());
+					ResourcesPlugin.getWorkspace().run(openRunnable, new NullProgressMonitor());
+				} finally {
+					reopenEvent.end();
+				}
 
 			} catch (final InterruptedException e) {
 				// just continue.
@@ -295,6 +332,7 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 
 			subImportMonitor.done();
 		} finally {
+			importEvent.end();
 			monitor.done();
 		}
 	}
@@ -337,10 +375,15 @@ public class ImportSampleOperation implements IRunnableWithProgress {
 				final IEditorRegistry registry = workbench.getEditorRegistry();
 				final IEditorDescriptor descriptor = registry.getDefaultEditor(fileToOpen.getName());
 				final String id = descriptor == null ? "org.eclipse.ui.DefaultTextEditor" : descriptor.getId();
+				final PhaseEvent event = PhaseEvent.begin(PhaseEvent.OPEN_EDITOR);
+				event.setSample(sample.getNumber());
+				event.setDetail(fileToOpen.getName());
 				try {
 					page.openEditor(new FileEditorInput(fileToOpen), id);
 				} catch (final PartInitException e) {
 					Utils.handleError(shell, e, "Error", "Error opening editor");
+				} finally {
+					event.end();
 				}
 				return Status.OK_STATUS;
 			};
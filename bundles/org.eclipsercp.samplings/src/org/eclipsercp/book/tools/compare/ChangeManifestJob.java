@@ -0,0 +1,207 @@
+package org.eclipsercp.book.tools.compare;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.eclipse.compare.structuremergeviewer.IStructureComparator;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipsercp.book.tools.ChangeManifest;
+import org.eclipsercp.book.tools.ChangeManifest.Change;
+import org.eclipsercp.book.tools.FileHistory;
+import org.eclipsercp.book.tools.Sample;
+import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFile;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFolder;
+
+/**
+ * Walks the samples in number order and attaches a {@link ChangeManifest} to
+ * every sample describing what changed since the sample before it. Each
+ * consecutive pair is diffed exactly once; samples that already have a
+ * manifest are skipped. Like the sample compares, the manifests ignore
+ * changes in whitespace.
+ * <p>
+ * The {@link FileHistory} of the model is filled in the same pass: only the
+ * files a manifest lists as changed need a new digest, all others keep the
+ * digest of the previous sample. Each sample structure is requested once and
+ * kept until the next sample is done, so neither the structures nor the
+ * digests of the changed files are computed twice.
+ * </p>
+ */
+public class ChangeManifestJob extends Job {
+
+	/*
+	 * Returns the number of lines in the given sample file, or 0 if the element
+	 * is not a file.
+	 */
+	private static int countLines(final Object element) {
+		if (!(element instanceof SampleFile)) {
+			return 0;
+		}
+		final byte[] bytes = ((SampleFile) element).getBytes();
+		if ((bytes == null) || (bytes.length == 0)) {
+			return 0;
+		}
+		int lines = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == '\n') {
+				lines++;
+			}
+		}
+		if (bytes[bytes.length - 1] != '\n') {
+			lines++;
+		}
+		return lines;
+	}
+
+	private final SamplesModel samples;
+
+	public ChangeManifestJob(final SamplesModel samples) {
+		super("Computing sample changes");
+		this.samples = samples;
+		setSystem(true);
+		setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * Computes the changes needed to go from the previous sample structure to
+	 * the current one. Files that only differ in whitespace are not listed.
+	 */
+	public static ChangeManifest computeManifest(final Sample previous, final IStructureComparator previousStructure, final IStructureComparator currentStructure) {
+		final ChangeManifest manifest = new ChangeManifest(previous.getNumber());
+		final Differencer d = new Differencer() {
+			protected Object visit(final Object data, final int result, final Object ancestor, final Object left, final Object right) {
+				final Object element = left != null ? left : right;
+				if (element instanceof SampleFile) {
+					final String path = ((SampleFile) element).getPath().toString();
+					final int kind;
+					switch (result & CHANGE_TYPE_MASK) {
+						case ADDITION:
+							kind = Change.ADDED;
+							break;
+						case DELETION:
+							kind = Change.REMOVED;
+							break;
+						default:
+							kind = Change.CHANGED;
+							break;
+					}
+					manifest.add(new Change(path, kind, countLines(left), countLines(right)));
+				}
+				return null;
+			}
+		};
+		d.setIgnoreWhitespace(true);
+		d.findDifferences(false, null, null, null, previousStructure, currentStructure);
+		return manifest;
+	}
+
+	/*
+	 * Returns the digest a file is tracked by in the history: whitespace
+	 * normalized for text, as in the manifests, and plain for binary files.
+	 */
+	private static byte[] getHistoryDigest(final SampleFile file) {
+		return ContentClassifier.isBinary(file) ? file.getDigest() : file.getNormalizedDigest();
+	}
+
+	/*
+	 * Adds the files of the given structure to the history, reading only the
+	 * files that changed since the previous sample.
+	 */
+	private static void collectFiles(final Object element, final ChangeManifest changes, final FileHistory history, final Float number, final Set present) {
+		if (element instanceof SampleFile) {
+			final SampleFile file = (SampleFile) element;
+			final String path = file.getPath().toString();
+			present.add(path);
+			byte[] digest = null;
+			if ((changes != null) && !changes.isChanged(path)) {
+				digest = history.getLastDigest(path);
+			}
+			history.add(path, number, digest != null ? digest : getHistoryDigest(file));
+		} else if (element instanceof SampleFolder) {
+			final Object[] children = ((SampleFolder) element).getChildren();
+			for (int i = 0; i < children.length; i++) {
+				collectFiles(children[i], changes, history, number, present);
+			}
+		}
+	}
+
+	/*
+	 * Adds the files of the given sample to the history and records the files
+	 * of the previous sample that are gone. Returns the paths of the files of
+	 * the given sample.
+	 */
+	private static Set addToHistory(final Sample[] sorted, final int index, final IStructureComparator structure, final Set previousFiles, final FileHistory history) {
+		ChangeManifest changes = sorted[index].getChanges();
+		if ((index == 0) || (changes == null) || !changes.getPreviousNumber().equals(sorted[index - 1].getNumber())) {
+			changes = null;
+		}
+		final Float number = sorted[index].getNumber();
+		final Set present = new HashSet();
+		collectFiles(structure, changes, history, number, present);
+		for (final Iterator p = previousFiles.iterator(); p.hasNext();) {
+			final String path = (String) p.next();
+			if (!present.contains(path)) {
+				history.add(path, number, null);
+			}
+		}
+		return present;
+	}
+
+	protected IStatus run(final IProgressMonitor monitor) {
+		final Sample[] ordered = samples.getSamples();
+		if (ordered == null) {
+			return Status.OK_STATUS;
+		}
+		final Sample[] sorted = (Sample[]) ordered.clone();
+		Arrays.sort(sorted, new Comparator() {
+			public int compare(final Object o1, final Object o2) {
+				return ((Sample) o1).getNumber().compareTo(((Sample) o2).getNumber());
+			}
+		});
+		monitor.beginTask(getName(), sorted.length);
+		try {
+			final SampleStructureCreator creator = new SampleStructureCreator(samples);
+			final FileHistory history = samples.getFileHistory() == null ? new FileHistory() : null;
+			// the structure of the previous sample is kept rather than requested
+			// again, the shared cache is much smaller than a chain of samples
+			IStructureComparator previous = null;
+			Set previousFiles = new HashSet();
+			for (int i = 0; i < sorted.length; i++) {
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				final boolean needsManifest = (i > 0) && (sorted[i].getChanges() == null);
+				if (!needsManifest && (history == null)) {
+					previous = null;
+					monitor.worked(1);
+					continue;
+				}
+				final IStructureComparator current = creator.getStructure(sorted[i]);
+				if (needsManifest) {
+					if (previous == null) {
+						previous = creator.getStructure(sorted[i - 1]);
+					}
+					sorted[i].setChanges(computeManifest(sorted[i - 1], previous, current));
+				}
+				if (history != null) {
+					previousFiles = addToHistory(sorted, i, current, previousFiles, history);
+				}
+				previous = current;
+				monitor.worked(1);
+			}
+			if (history != null) {
+				samples.setFileHistory(history);
+			}
+			return Status.OK_STATUS;
+		} finally {
+			monitor.done();
+		}
+	}
+}
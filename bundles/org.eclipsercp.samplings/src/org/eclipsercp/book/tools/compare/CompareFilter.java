@@ -0,0 +1,370 @@
+package org.eclipsercp.book.tools.compare;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+import org.eclipse.compare.internal.CompareUIPlugin;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import org.eclipsercp.book.tools.SampleSource;
+
+/**
+ * Decides which files and folders take part in a compare. The same rules are
+ * applied to the sample structure, the workspace and the file system so that
+ * both sides of a compare see the same set of elements.
+ * <p>
+ * Rules use the <code>.gitignore</code> syntax: <code>*</code>,
+ * <code>?</code> and <code>**</code> wildcards, a trailing <code>/</code> to
+ * match folders only, a leading <code>/</code> or an inner <code>/</code> to
+ * match a path relative to the compare root, and a leading <code>!</code> to
+ * include elements again. The last matching rule wins. A samples bundle can
+ * add its own rules in a <code>.compareignore</code> file at its root.
+ * </p>
+ * <p>
+ * Paths are relative to the compare root (starting with the project name),
+ * separated by <code>/</code> and without leading or trailing separators.
+ * Callers check each element before enumerating its children, so the rules
+ * are evaluated once per path segment and filtered subtrees are never
+ * enumerated. Rules that only look at a single segment are memoized by name,
+ * for the most recently checked names. The user's "filtered members" compare preference is asked each time, so
+ * changes to it apply to the next compare.
+ * </p>
+ * <p>
+ * A filter can be restricted to a scope of paths, such as some projects or a
+ * folder inside a project. Everything outside of the scope is filtered so a
+ * scoped compare only enumerates the elements it shows.
+ * </p>
+ */
+public class CompareFilter {
+
+	private static class Rule {
+		final Pattern pattern;
+		final boolean segment;
+		final boolean directoryOnly;
+		final boolean negated;
+
+		Rule(final Pattern pattern, final boolean segment, final boolean directoryOnly, final boolean negated) {
+			this.pattern = pattern;
+			this.segment = segment;
+			this.directoryOnly = directoryOnly;
+			this.negated = negated;
+		}
+
+		boolean matches(final String text, final boolean directory) {
+			return (directory || !directoryOnly) && pattern.matcher(text).matches();
+		}
+	}
+
+	/**
+	 * The rules applied to every compare, before the rules of a bundle.
+	 */
+	private static final String[] DEFAULT_RULES = { "CVS", "bin", "/imports.def" };
+
+	/**
+	 * The name of the bundle entry holding the rules of a samples bundle.
+	 */
+	public static final String FILTER_FILE = ".compareignore";
+
+	/**
+	 * The maximum number of names whose segment rule results are memoized per
+	 * set of rules.
+	 */
+	private static final int MAX_SEGMENT_RESULTS = 1024;
+
+	/*
+	 * The filter of each source and the source id it was read for. Sources
+	 * that are no longer used are dropped with their filters.
+	 */
+	private static final Map fFilters = new WeakHashMap();
+	private static CompareFilter fDefault;
+
+	private static Pattern compileGlob(final String glob) {
+		final StringBuffer regex = new StringBuffer(glob.length() * 2);
+		final int length = glob.length();
+		for (int i = 0; i < length; i++) {
+			final char c = glob.charAt(i);
+			if (c == '*') {
+				if ((i + 1 < length) && (glob.charAt(i + 1) == '*')) {
+					i++;
+					if ((i + 1 < length) && (glob.charAt(i + 1) == '/')) {
+						// "**/" matches zero or more folders
+						i++;
+						regex.append("(.*/)?");
+					} else {
+						regex.append(".*");
+					}
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+				regex.append('\\').append(c);
+			} else {
+				regex.append(c);
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/*
+	 * Compiles a single line of .gitignore syntax, returns null for blank lines
+	 * and comments.
+	 */
+	private static Rule compileRule(String line) {
+		line = line.trim();
+		if ((line.length() == 0) || line.startsWith("#")) {
+			return null;
+		}
+		boolean negated = false;
+		if (line.startsWith("!")) {
+			negated = true;
+			line = line.substring(1);
+		}
+		boolean directoryOnly = false;
+		if (line.endsWith("/")) {
+			directoryOnly = true;
+			line = line.substring(0, line.length() - 1);
+		}
+		boolean segment = line.indexOf('/') < 0;
+		if (line.startsWith("/")) {
+			segment = false;
+			line = line.substring(1);
+		}
+		if (line.length() == 0) {
+			return null;
+		}
+		return new Rule(compileGlob(line), segment, directoryOnly, negated);
+	}
+
+	/**
+	 * Returns the filter with the default rules only.
+	 */
+	public static synchronized CompareFilter getDefault() {
+		if (fDefault == null) {
+			fDefault = new CompareFilter(new ArrayList());
+		}
+		return fDefault;
+	}
+
+	/**
+	 * Returns the filter for the samples in the given source: the default rules
+	 * followed by the rules of the source's <code>.compareignore</code> file,
+	 * if any. Filters are kept per source and read again when the id of the
+	 * source changes.
+	 */
+	public static CompareFilter getFilter(final SampleSource source) {
+		if (source == null) {
+			return getDefault();
+		}
+		final String id = source.getId();
+		synchronized (fFilters) {
+			final Object[] entry = (Object[]) fFilters.get(source);
+			if ((entry != null) && id.equals(entry[0])) {
+				return (CompareFilter) entry[1];
+			}
+			final CompareFilter filter = new CompareFilter(readRules(source));
+			fFilters.put(source, new Object[] { id, filter });
+			return filter;
+		}
+	}
+
+	private static List readRules(final SampleSource source) {
+		final List lines = new ArrayList();
+		if (!source.exists(FILTER_FILE)) {
+			return lines;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(source.open(FILTER_FILE), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} catch (final IOException e) {
+			// use the default rules only
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+		return lines;
+	}
+
+	private final Rule[] fRules;
+	private final boolean fHasPathRules;
+	private final Map fSegmentResults;
+	private final String[] fScope;
+
+	private CompareFilter(final List extraRules) {
+		final List rules = new ArrayList();
+		for (int i = 0; i < DEFAULT_RULES.length; i++) {
+			rules.add(compileRule(DEFAULT_RULES[i]));
+		}
+		for (int i = 0; i < extraRules.size(); i++) {
+			final Rule rule = compileRule((String) extraRules.get(i));
+			if (rule != null) {
+				rules.add(rule);
+			}
+		}
+		fRules = (Rule[]) rules.toArray(new Rule[rules.size()]);
+		boolean hasPathRules = false;
+		for (int i = 0; i < fRules.length; i++) {
+			hasPathRules |= !fRules[i].segment;
+		}
+		fHasPathRules = hasPathRules;
+		fSegmentResults = new LinkedHashMap(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(final Map.Entry eldest) {
+				return size() > MAX_SEGMENT_RESULTS;
+			}
+		};
+		fScope = null;
+	}
+
+	private CompareFilter(final CompareFilter filter, final String[] scope) {
+		fRules = filter.fRules;
+		fHasPathRules = filter.fHasPathRules;
+		// the rules are the same, so are the results
+		fSegmentResults = filter.fSegmentResults;
+		fScope = scope;
+	}
+
+	/**
+	 * Returns the scope of this filter, or <code>null</code> if it is not
+	 * restricted.
+	 */
+	public IPath[] getScope() {
+		if (fScope == null) {
+			return null;
+		}
+		final IPath[] scope = new IPath[fScope.length];
+		for (int i = 0; i < scope.length; i++) {
+			scope[i] = new Path(fScope[i]);
+		}
+		return scope;
+	}
+
+	/*
+	 * Returns whether the given path is inside the scope, or is a parent of an
+	 * element inside the scope.
+	 */
+	private boolean isInScope(final String path) {
+		for (int i = 0; i < fScope.length; i++) {
+			final String scope = fScope[i];
+			if (path.startsWith(scope)) {
+				if ((path.length() == scope.length()) || (path.charAt(scope.length()) == '/')) {
+					return true;
+				}
+			} else if (scope.startsWith(path) && (scope.charAt(path.length()) == '/')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Returns the index of the last segment rule matching the given name,
+	 * -1 if none matches or -2 if the user's compare preferences filter it.
+	 * Only the result of the rules is memoized, the preferences can change.
+	 */
+	private int evaluateSegment(final String name, final boolean directory) {
+		final int result = evaluateSegmentRules(name, directory);
+		if (result >= 0) {
+			return result;
+		}
+		// the compare plug-in is not active when running headless
+		final CompareUIPlugin plugin = CompareUIPlugin.getDefault();
+		if ((plugin != null) && plugin.filter(name, directory, false)) {
+			return -2;
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the index of the last segment rule matching the given name, or
+	 * -1 if none matches.
+	 */
+	private int evaluateSegmentRules(final String name, final boolean directory) {
+		final String key = directory ? name + '/' : name;
+		synchronized (fSegmentResults) {
+			final Integer cached = (Integer) fSegmentResults.get(key);
+			if (cached != null) {
+				return cached.intValue();
+			}
+		}
+		int result = -1;
+		for (int i = fRules.length - 1; i >= 0; i--) {
+			if (fRules[i].segment && fRules[i].matches(name, directory)) {
+				result = i;
+				break;
+			}
+		}
+		synchronized (fSegmentResults) {
+			fSegmentResults.put(key, new Integer(result));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a filter with the same rules that also excludes everything
+	 * outside of the given paths. Paths are relative to the compare root and
+	 * start with a project name.
+	 * 
+	 * @param scope
+	 *            the paths to compare, or <code>null</code> for no restriction
+	 * @return the restricted filter
+	 */
+	public CompareFilter restrict(final IPath[] scope) {
+		if (scope == null) {
+			return fScope == null ? this : new CompareFilter(this, null);
+		}
+		final String[] paths = new String[scope.length];
+		for (int i = 0; i < scope.length; i++) {
+			paths[i] = scope[i].makeRelative().removeTrailingSeparator().toString();
+		}
+		return new CompareFilter(this, paths);
+	}
+
+	/**
+	 * Returns whether the element at the given path is excluded from
+	 * compares. The parent of the element is assumed not to be excluded.
+	 *
+	 * @param path
+	 *            the path relative to the compare root
+	 * @param directory
+	 *            whether the element is a folder or project
+	 * @return <code>true</code> if the element is filtered
+	 */
+	public boolean isFiltered(final String path, final boolean directory) {
+		if ((fScope != null) && !isInScope(path)) {
+			return true;
+		}
+		final String name = path.substring(path.lastIndexOf('/') + 1);
+		final int segmentMatch = evaluateSegment(name, directory);
+		if (fHasPathRules) {
+			for (int i = fRules.length - 1; i > segmentMatch; i--) {
+				if (!fRules[i].segment && fRules[i].matches(path, directory)) {
+					return !fRules[i].negated;
+				}
+			}
+		}
+		if (segmentMatch == -2) {
+			return true;
+		}
+		return (segmentMatch >= 0) && !fRules[segmentMatch].negated;
+	}
+}
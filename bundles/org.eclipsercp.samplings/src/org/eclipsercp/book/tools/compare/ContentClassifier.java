@@ -0,0 +1,185 @@
+package org.eclipsercp.book.tools.compare;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.compare.IStreamContentAccessor;
+import org.eclipse.compare.ITypedElement;
+import org.eclipse.compare.structuremergeviewer.ICompareInput;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Tells text and binary content apart. The file extension decides for all
+ * common file types; other files are classified by sniffing the first bytes
+ * of their content for well known magic numbers and NUL characters.
+ * <p>
+ * Binary files are compared by length and digest only and are never shown in
+ * a text viewer.
+ * </p>
+ */
+public final class ContentClassifier {
+
+	public static final int UNKNOWN = 0;
+	public static final int TEXT = 1;
+	public static final int BINARY = 2;
+
+	/**
+	 * The number of bytes looked at when sniffing content.
+	 */
+	static final int SNIFF_LENGTH = 512;
+
+	private static final Set TEXT_EXTENSIONS = new HashSet(Arrays.asList(new String[] { "java", "xml", "txt", "mf", "properties", "html", "htm", "css", "js", "def", "product", "exsd", "ini", "project", "classpath", "options", "prefs", "mappings", "xsl", "xsd", "sh", "bat", "cmd", "c", "h", "cpp", "jsp", "csv", "compareignore" }));
+
+	private static final Set IMAGE_EXTENSIONS = new HashSet(Arrays.asList(new String[] { "gif", "png", "jpg", "jpeg", "bmp", "ico" }));
+
+	private static final Set BINARY_EXTENSIONS = new HashSet(Arrays.asList(new String[] { "jar", "zip", "class", "pdf", "so", "dll", "exe", "jnilib", "icns", "tif", "tiff", "doc", "xls", "ppt", "gz", "tgz" }));
+
+	private static final byte[][] MAGIC_NUMBERS = { { 'P', 'K', 3, 4 }, // zip and jar
+			{ (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE }, // class
+			{ 'G', 'I', 'F', '8' }, // gif
+			{ (byte) 0x89, 'P', 'N', 'G' }, // png
+			{ (byte) 0xFF, (byte) 0xD8, (byte) 0xFF }, // jpeg
+			{ '%', 'P', 'D', 'F' }, // pdf
+			{ 0x1F, (byte) 0x8B } // gzip
+	};
+
+	/**
+	 * Returns the content kind implied by the extension of the given file
+	 * name: <code>TEXT</code>, <code>BINARY</code> or <code>UNKNOWN</code>
+	 * if the content has to be sniffed.
+	 */
+	public static int classifyName(final String name) {
+		final int pos = name.lastIndexOf('.');
+		if (pos < 0) {
+			return UNKNOWN;
+		}
+		final String extension = name.substring(pos + 1).toLowerCase();
+		if (TEXT_EXTENSIONS.contains(extension)) {
+			return TEXT;
+		}
+		if (IMAGE_EXTENSIONS.contains(extension) || BINARY_EXTENSIONS.contains(extension)) {
+			return BINARY;
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Classifies a file by its name and, only if the name does not decide, by
+	 * the first bytes of its content. The stream is closed.
+	 */
+	public static int classify(final String name, final InputStream in) {
+		int kind = classifyName(name);
+		if ((kind == UNKNOWN) && (in != null)) {
+			try {
+				kind = sniff(in);
+			} catch (final IOException e) {
+				kind = TEXT;
+			}
+		}
+		if (in != null) {
+			try {
+				in.close();
+			} catch (final IOException e) {
+				// ignore
+			}
+		}
+		return kind == UNKNOWN ? TEXT : kind;
+	}
+
+	/**
+	 * Returns whether the given compare element has binary content. Sample and
+	 * workspace nodes remember the result; other elements are classified each
+	 * time.
+	 */
+	public static boolean isBinary(final Object element) {
+		if (element instanceof SampleStructureCreator.SampleFile) {
+			return ((SampleStructureCreator.SampleFile) element).isBinary();
+		}
+		if (element instanceof EclipseResourceNode) {
+			return ((EclipseResourceNode) element).isBinary();
+		}
+		if (!(element instanceof ITypedElement) || ITypedElement.FOLDER_TYPE.equals(((ITypedElement) element).getType())) {
+			return false;
+		}
+		final String name = ((ITypedElement) element).getName();
+		if ((classifyName(name) != UNKNOWN) || !(element instanceof IStreamContentAccessor)) {
+			return classifyName(name) == BINARY;
+		}
+		try {
+			return classify(name, ((IStreamContentAccessor) element).getContents()) == BINARY;
+		} catch (final CoreException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether the given compare input has to be shown in the binary
+	 * viewer: either side is binary and it is not an image, which the compare
+	 * editor shows in its image viewer.
+	 */
+	public static boolean isBinaryInput(final ICompareInput input) {
+		final ITypedElement left = input.getLeft();
+		final ITypedElement right = input.getRight();
+		final String name = left != null ? left.getName() : right != null ? right.getName() : null;
+		if ((name == null) || isImage(name)) {
+			return false;
+		}
+		return isBinary(left) || isBinary(right);
+	}
+
+	/**
+	 * Returns whether binary content with the given name has a dedicated image
+	 * viewer in the compare editor.
+	 */
+	public static boolean isImage(final String name) {
+		final int pos = name.lastIndexOf('.');
+		return (pos >= 0) && IMAGE_EXTENSIONS.contains(name.substring(pos + 1).toLowerCase());
+	}
+
+	/**
+	 * Returns whether the given bytes from the start of a file indicate binary
+	 * content: a known magic number or a NUL character outside of a UTF-16
+	 * encoded text.
+	 */
+	public static boolean isBinaryContent(final byte[] head, final int length) {
+		for (int i = 0; i < MAGIC_NUMBERS.length; i++) {
+			final byte[] magic = MAGIC_NUMBERS[i];
+			if (length >= magic.length) {
+				int j = 0;
+				while ((j < magic.length) && (head[j] == magic[j])) {
+					j++;
+				}
+				if (j == magic.length) {
+					return true;
+				}
+			}
+		}
+		if ((length >= 2) && (((head[0] == (byte) 0xFE) && (head[1] == (byte) 0xFF)) || ((head[0] == (byte) 0xFF) && (head[1] == (byte) 0xFE)))) {
+			// UTF-16 byte order mark
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (head[i] == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int sniff(final InputStream in) throws IOException {
+		final byte[] head = new byte[SNIFF_LENGTH];
+		int length = 0;
+		int read;
+		while ((length < head.length) && ((read = in.read(head, length, head.length - length)) != -1)) {
+			length += read;
+		}
+		return isBinaryContent(head, length) ? BINARY : TEXT;
+	}
+
+	private ContentClassifier() {
+		// static helpers only
+	}
+}
@@ -0,0 +1,142 @@
+package org.eclipsercp.book.tools.compare;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.compare.IStreamContentAccessor;
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+/**
+ * Copies a set of files from a sample into the workspace as one workspace
+ * operation, so that all writes result in a single resource delta and build.
+ * File contents are streamed from the sample straight into the workspace.
+ */
+public class CopyToWorkspaceOperation implements IWorkspaceRunnable {
+
+	/*
+	 * Creates the given container and any missing parents.
+	 */
+	private static void createContainer(final IContainer container, final IProgressMonitor monitor) throws CoreException {
+		if ((container.getType() == IResource.ROOT) || container.exists()) {
+			return;
+		}
+		createContainer(container.getParent(), monitor);
+		if (container.getType() == IResource.PROJECT) {
+			final IProject project = (IProject) container;
+			project.create(monitor);
+			project.open(monitor);
+		} else {
+			((IFolder) container).create(true, true, monitor);
+		}
+	}
+
+	private final List targets = new ArrayList();
+	private final List sources = new ArrayList();
+	private final List deletions = new ArrayList();
+
+	/**
+	 * Adds a file to copy. The target file and its parents are created if
+	 * they do not exist.
+	 */
+	public void addCopy(final IFile target, final IStreamContentAccessor source) {
+		targets.add(target);
+		sources.add(source);
+	}
+
+	/**
+	 * Adds a file to delete.
+	 */
+	public void addDelete(final IFile target) {
+		deletions.add(target);
+	}
+
+	/**
+	 * Returns the smallest scheduling rule covering all writes of this
+	 * operation: the modified and deleted files, and for new files the parent
+	 * of the topmost container that has to be created.
+	 */
+	public ISchedulingRule getSchedulingRule() {
+		final IResourceRuleFactory factory = ResourcesPlugin.getWorkspace().getRuleFactory();
+		ISchedulingRule rule = null;
+		for (int i = 0; i < targets.size(); i++) {
+			final IFile file = (IFile) targets.get(i);
+			if (file.exists()) {
+				rule = MultiRule.combine(rule, factory.modifyRule(file));
+			} else {
+				IResource missing = file;
+				while ((missing.getParent().getType() != IResource.ROOT) && !missing.getParent().exists()) {
+					missing = missing.getParent();
+				}
+				rule = MultiRule.combine(rule, factory.createRule(missing));
+			}
+		}
+		for (int i = 0; i < deletions.size(); i++) {
+			rule = MultiRule.combine(rule, factory.deleteRule((IResource) deletions.get(i)));
+		}
+		return rule;
+	}
+
+	public boolean isEmpty() {
+		return targets.isEmpty() && deletions.isEmpty();
+	}
+
+	public void run(final IProgressMonitor monitor) throws CoreException {
+		monitor.beginTask("Copying into workspace", targets.size() + deletions.size());
+		try {
+			for (int i = 0; i < deletions.size(); i++) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				final IFile file = (IFile) deletions.get(i);
+				if (file.exists()) {
+					file.delete(true, true, new SubProgressMonitor(monitor, 1));
+				} else {
+					monitor.worked(1);
+				}
+			}
+			for (int i = 0; i < targets.size(); i++) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				final IFile file = (IFile) targets.get(i);
+				monitor.subTask(file.getFullPath().toString());
+				InputStream in = ((IStreamContentAccessor) sources.get(i)).getContents();
+				if (in == null) {
+					in = new ByteArrayInputStream(new byte[0]);
+				}
+				try {
+					if (file.exists()) {
+						file.setContents(in, true, true, new SubProgressMonitor(monitor, 1));
+					} else {
+						createContainer(file.getParent(), monitor);
+						file.create(in, true, new SubProgressMonitor(monitor, 1));
+					}
+				} finally {
+					try {
+						in.close();
+					} catch (final IOException e) {
+						// ignore
+					}
+				}
+			}
+		} finally {
+			monitor.done();
+		}
+	}
+}
@@ -16,12 +16,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.eclipse.compare.IStreamContentAccessor;
 import org.eclipse.compare.ITypedElement;
@@ -36,6 +33,10 @@ import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.util.Assert;
 
 import org.eclipsercp.book.tools.IConstants;
+import org.eclipsercp.book.tools.PhaseEvent;
+import org.eclipsercp.book.tools.Utils;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFile;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFolder;
 
 /*
  * NOTE:
@@ -78,29 +79,25 @@ import org.eclipsercp.book.tools.IConstants;
  */
 public class Differencer {
 
+	/*
+	 * A changed element of the traversal result. Nodes are only created for
+	 * elements that differ; their children are kept in an exactly sized array.
+	 */
 	static class Node {
-		List fChildren;
-		int fCode;
-		Object fAncestor;
-		Object fLeft;
-		Object fRight;
-
-		Node() {
-			// nothing to do
-		}
-
-		Node(final Node parent, final Object ancestor, final Object left, final Object right) {
-			parent.add(this);
+		final Node[] fChildren;
+		final int fCode;
+		final Object fAncestor;
+		final Object fLeft;
+		final Object fRight;
+		final boolean fDeferred;
+
+		Node(final Object ancestor, final Object left, final Object right, final int code, final Node[] children, final boolean deferred) {
 			fAncestor = ancestor;
 			fLeft = left;
 			fRight = right;
-		}
-
-		void add(final Node child) {
-			if (fChildren == null) {
-				fChildren = new ArrayList();
-			}
-			fChildren.add(child);
+			fCode = code;
+			fChildren = children;
+			fDeferred = deferred;
 		}
 
 		Object visit(final Differencer d, final Object parent, final int level) {
@@ -108,12 +105,13 @@ public class Differencer {
 				return null;
 			}
 			//dump(level);
+			if (fDeferred) {
+				return d.visitDeferred(parent, fCode, fAncestor, fLeft, fRight);
+			}
 			final Object data = d.visit(parent, fCode, fAncestor, fLeft, fRight);
 			if (fChildren != null) {
-				final Iterator i = fChildren.iterator();
-				while (i.hasNext()) {
-					final Node n = (Node) i.next();
-					n.visit(d, data, level + 1);
+				for (int i = 0; i < fChildren.length; i++) {
+					fChildren[i].visit(d, data, level + 1);
 				}
 			}
 			return data;
@@ -216,6 +214,40 @@ public class Differencer {
 	 */
 	public static final int PSEUDO_CONFLICT = 16;
 
+	/**
+	 * The result of comparing the contents of a folder whose traversal was
+	 * deferred. It can be computed in the background and visited later.
+	 * 
+	 * @see Differencer#setDeferDepth(int)
+	 */
+	public static final class Subtree {
+		private final Node fNode;
+
+		Subtree(final Node node) {
+			fNode = node;
+		}
+
+		/**
+		 * Returns the kind of difference of the folder, <code>NO_CHANGE</code>
+		 * if its contents turned out to be equal.
+		 */
+		public int getKind() {
+			return fNode == null ? NO_CHANGE : fNode.fCode;
+		}
+	}
+
+	/*
+	 * Orders children by name, the same key that is used to match them.
+	 */
+	private static final Comparator NAME_ORDER = new Comparator() {
+		public int compare(final Object o1, final Object o2) {
+			return getName(o1).compareTo(getName(o2));
+		}
+	};
+
+	private int fDeferDepth = -1;
+	private boolean fIgnoreWhitespace = false;
+
 	/**
 	 * Creates a new differencing engine.
 	 */
@@ -223,6 +255,35 @@ public class Differencer {
 		// nothing to do
 	}
 
+	/**
+	 * Sets the depth below the compared roots at which two-way compares stop
+	 * descending into folders. Such folders are first checked entry by entry
+	 * through their content digests, without creating any nodes, and only
+	 * reported through <code>visitDeferred</code> if they differ. They can
+	 * then be compared later with <code>findChildDifferences</code>. A
+	 * negative depth (the default) traverses everything.
+	 * 
+	 * @param depth
+	 *            the depth of the first deferred folders, the roots having
+	 *            depth 0
+	 */
+	public void setDeferDepth(final int depth) {
+		fDeferDepth = depth;
+	}
+
+	/**
+	 * Sets whether text files that only differ in whitespace are considered
+	 * equal. The default is <code>false</code>, which only ignores carriage
+	 * returns. Files are compared through their cached whitespace normalized
+	 * digests, so the cost is one read per file as for the plain compare.
+	 * 
+	 * @param ignore
+	 *            <code>true</code> to ignore whitespace changes
+	 */
+	public void setIgnoreWhitespace(final boolean ignore) {
+		fIgnoreWhitespace = ignore;
+	}
+
 	/*
 	 * Performs a 2-way or 3-way compare of the given leaf elements and returns an integer
 	 * describing the kind of difference.
@@ -230,6 +291,8 @@ public class Differencer {
 	private int compare(final boolean threeway, final Object ancestor, final Object left, final Object right) {
 
 		int description = NO_CHANGE;
+		// counted into the compare phase of the caller, if it started one
+		PhaseEvent.current().addFiles(1);
 
 		if (threeway) {
 			if (ancestor == null) {
@@ -330,6 +393,29 @@ public class Differencer {
 			return true;
 		}
 
+		if ((input1 instanceof SampleFile) && (input2 instanceof SampleFile)) {
+			// sample content is immutable, so files backed by the same entry or with
+			// the same digest are equal without comparing them byte by byte
+			final SampleFile file1 = (SampleFile) input1;
+			final SampleFile file2 = (SampleFile) input2;
+			if (file1.isSameEntry(file2)) {
+				return true;
+			}
+			final byte[] digest1 = file1.getDigest();
+			if ((digest1 != null) && Arrays.equals(digest1, file2.getDigest())) {
+				return true;
+			}
+		}
+
+		if (ContentClassifier.isBinary(input1) || ContentClassifier.isBinary(input2)) {
+			return binaryContentsEqual(input1, input2);
+		}
+
+		if (fIgnoreWhitespace) {
+			final byte[] digest1 = getNormalizedDigest(input1);
+			return (digest1 != null) && Arrays.equals(digest1, getNormalizedDigest(input2));
+		}
+
 		final InputStream is1 = getStream(input1);
 		final InputStream is2 = getStream(input2);
 
@@ -379,6 +465,66 @@ public class Differencer {
 		return false;
 	}
 
+	/*
+	 * Binary content is compared by length and digest only, without the line
+	 * end normalization applied to text.
+	 */
+	private boolean binaryContentsEqual(final Object input1, final Object input2) {
+		if ((input1 instanceof ITypedElement) && (input2 instanceof ITypedElement)) {
+			final int length1 = EclipseResourceNode.getLength((ITypedElement) input1);
+			final int length2 = EclipseResourceNode.getLength((ITypedElement) input2);
+			if ((length1 >= 0) && (length2 >= 0) && (length1 != length2)) {
+				return false;
+			}
+		}
+		final byte[] digest1 = getDigest(input1);
+		return (digest1 != null) && Arrays.equals(digest1, getDigest(input2));
+	}
+
+	/*
+	 * Returns the digest of the content of the given element, using the digest
+	 * cached by sample and workspace nodes.
+	 */
+	private byte[] getDigest(final Object input) {
+		if (input instanceof SampleFile) {
+			return ((SampleFile) input).getDigest();
+		}
+		if (input instanceof EclipseResourceNode) {
+			return ((EclipseResourceNode) input).getDigest();
+		}
+		final InputStream is = getStream(input);
+		if (is == null) {
+			return null;
+		}
+		try {
+			return Utils.digest(is);
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Returns the whitespace normalized digest of the content of the given
+	 * element, using the digest cached by sample and workspace nodes.
+	 */
+	private byte[] getNormalizedDigest(final Object input) {
+		if (input instanceof SampleFile) {
+			return ((SampleFile) input).getNormalizedDigest();
+		}
+		if (input instanceof EclipseResourceNode) {
+			return ((EclipseResourceNode) input).getNormalizedDigest();
+		}
+		final InputStream is = getStream(input);
+		if (is == null) {
+			return null;
+		}
+		try {
+			return Utils.normalizedDigest(is);
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Starts the differencing engine on the three input objects. If threeWay is
 	 * <code>true</code> a three-way comparison is performed, otherwise a
@@ -409,20 +555,70 @@ public class Differencer {
 	 */
 	public Object findDifferences(final boolean threeWay, final IProgressMonitor pm, final Object data, final Object ancestor, final Object left, final Object right) {
 
-		final Node root = new Node();
+		// changed children are collected on a shared stack and copied into an
+		// exactly sized array once their parent is complete
+		final List pending = new ArrayList();
 
-		final int code = traverse(threeWay, root, pm, threeWay ? ancestor : null, left, right);
+		final Node root = traverse(threeWay, pending, pm, threeWay ? ancestor : null, left, right, 0, threeWay ? -1 : fDeferDepth);
 
-		if (code != NO_CHANGE) {
-			final List l = root.fChildren;
-			if (l.size() > 0) {
-				final Node first = (Node) l.get(0);
-				return first.visit(this, data, 0);
-			}
+		if (root != null) {
+			return root.visit(this, data, 0);
 		}
 		return null;
 	}
 
+	/**
+	 * Fully compares the contents of the given two-way inputs, typically a
+	 * folder reported by <code>visitDeferred</code>. Nothing is visited; pass
+	 * the result to <code>visitChildren</code> to create the difference nodes.
+	 * This method does not touch the visited tree and may be called from any
+	 * thread.
+	 * 
+	 * @param pm
+	 *            a progress monitor, may be <code>null</code>
+	 * @param left
+	 *            the left object of the compare
+	 * @param right
+	 *            the right object of the compare
+	 * @return the compared subtree
+	 */
+	public Subtree findChildDifferences(final IProgressMonitor pm, final Object left, final Object right) {
+		return new Subtree(traverse(false, new ArrayList(), pm, null, left, right, 0, -1));
+	}
+
+	/**
+	 * Calls <code>visit</code> for the root of the given subtree and all
+	 * differences below it.
+	 * 
+	 * @param subtree
+	 *            the result of <code>findChildDifferences</code>
+	 * @param data
+	 *            the object representing the parent of the subtree
+	 * @return the object returned from the call to <code>visit</code> for the
+	 *         root of the subtree, <code>null</code> if it has no differences
+	 */
+	public Object visitSubtree(final Subtree subtree, final Object data) {
+		return subtree.fNode == null ? null : subtree.fNode.visit(this, data, 0);
+	}
+
+	/**
+	 * Calls <code>visit</code> for all differences below the root of the given
+	 * subtree, passing <code>data</code> to the calls for its direct children.
+	 * 
+	 * @param subtree
+	 *            the result of <code>findChildDifferences</code>
+	 * @param data
+	 *            the object representing the root of the subtree
+	 */
+	public void visitChildren(final Subtree subtree, final Object data) {
+		final Node node = subtree.fNode;
+		if ((node != null) && (node.fChildren != null)) {
+			for (int i = 0; i < node.fChildren.length; i++) {
+				node.fChildren[i].visit(this, data, 1);
+			}
+		}
+	}
+
 	/**
 	 * Returns the children of the given input or <code>null</code> if there are
 	 * no children.
@@ -462,15 +658,88 @@ public class Differencer {
 		return null;
 	}
 
+	/**
+	 * Returns whether the two given structures are known to be identical
+	 * without traversing them. Identical subtrees are skipped entirely and no
+	 * result nodes are created for them.
+	 * <p>
+	 * The <code>Differencer</code> implementation recognizes sample elements
+	 * that are backed by the same bundle entry or whose content digests are
+	 * equal. Subclasses may override.
+	 * </p>
+	 * 
+	 * @param left
+	 *            the left input, not <code>null</code>
+	 * @param right
+	 *            the right input, not <code>null</code>
+	 * @return <code>true</code> if both structures are known to be equal
+	 */
+	protected boolean structuresEqual(final Object left, final Object right) {
+		if ((left instanceof SampleFolder) && (right instanceof SampleFolder)) {
+			final SampleFolder leftFolder = (SampleFolder) left;
+			final SampleFolder rightFolder = (SampleFolder) right;
+			if (leftFolder.isSameEntry(rightFolder)) {
+				return true;
+			}
+			final byte[] digest = leftFolder.getDigest();
+			return (digest != null) && Arrays.equals(digest, rightFolder.getDigest());
+		}
+		return false;
+	}
+
+	/*
+	 * Returns whether the given elements have the same entries with equal
+	 * contents, stopping at the first difference. Files are compared with
+	 * contentsEqual, which uses the cached digests where it can.
+	 */
+	private boolean subtreesEqual(final Object left, final Object right) {
+		if (isFolder(left) != isFolder(right)) {
+			return false;
+		}
+		if (!isFolder(left)) {
+			return contentsEqual(left, right);
+		}
+		if (structuresEqual(left, right)) {
+			return true;
+		}
+		final Object[] lefts = sortByName(filterLeftChildren(getChildren(left)));
+		final Object[] rights = sortByName(filterRightChildren(getChildren(right)));
+		final int leftCount = lefts != null ? lefts.length : 0;
+		final int rightCount = rights != null ? rights.length : 0;
+		if (leftCount != rightCount) {
+			return false;
+		}
+		for (int i = 0; i < leftCount; i++) {
+			if (!getName(lefts[i]).equals(getName(rights[i])) || !subtreesEqual(lefts[i], rights[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/*
-	 * Traverse tree in postorder.
+	 * Traverse tree in postorder. Returns the node for the given inputs or
+	 * <code>null</code> if they are equal.
 	 */
-	private int traverse(final boolean threeWay, final Node parent, final IProgressMonitor pm, final Object ancestor, final Object left, final Object right) {
+	private Node traverse(final boolean threeWay, final List pending, final IProgressMonitor pm, final Object ancestor, final Object left, final Object right, final int depth, final int deferDepth) {
+		if (!threeWay && (left != null) && (right != null) && structuresEqual(left, right)) {
+			return null;
+		}
+
+		if ((deferDepth >= 0) && (depth >= deferDepth) && (isFolder(left) || isFolder(right))) {
+			if ((left != null) && (right != null) && subtreesEqual(left, right)) {
+				return null;
+			}
+			// the folder changed, its contents are compared on demand
+			final int code = left == null ? ADDITION : (right == null ? DELETION : CHANGE);
+			return new Node(ancestor, left, right, code, null, true);
+		}
+
 		final Object[] ancestorChildren = getChildren(ancestor);
 		final Object[] rightChildren = getChildren(right);
 		final Object[] leftChildren = getChildren(left);
 
-		final Node node = new Node(parent, ancestor, left, right);
+		final int mark = pending.size();
 		int code = NO_CHANGE;
 		if (left == null) {
 			code = ADDITION;
@@ -484,58 +753,42 @@ public class Differencer {
 			// we only recurse down if no leg is null
 			// a node
 
-			final Set allSet = new HashSet(20);
-			Map ancestorSet = null;
-			Map rightSet = null;
-			Map leftSet = null;
-
-			if (ancestorChildren != null) {
-				ancestorSet = new HashMap(10);
-				for (int i = 0; i < ancestorChildren.length; i++) {
-					final Object ancestorChild = ancestorChildren[i];
-					ancestorSet.put(ancestorChild, ancestorChild);
-					allSet.add(ancestorChild);
+			// match children by sorting each side by name once and merge-joining
+			// the sorted runs, which also gives a deterministic order
+			// (the filtered arrays are private copies, the ancestor array is copied
+			// since structure comparators may return their internal state)
+			final Object[] ancestors = sortByName(ancestorChildren != null ? ancestorChildren.clone() : null);
+			final Object[] rights = sortByName(filterRightChildren(rightChildren));
+			final Object[] lefts = sortByName(filterLeftChildren(leftChildren));
+			final int ancestorCount = ancestors != null ? ancestors.length : 0;
+			final int rightCount = rights != null ? rights.length : 0;
+			final int leftCount = lefts != null ? lefts.length : 0;
+
+			int a = 0;
+			int l = 0;
+			int r = 0;
+			while ((a < ancestorCount) || (l < leftCount) || (r < rightCount)) {
+				String name = null;
+				if (a < ancestorCount) {
+					name = getName(ancestors[a]);
 				}
-			}
-
-			if (rightChildren != null) {
-				rightSet = new HashMap(10);
-				for (int i = 0; i < rightChildren.length; i++) {
-					final ITypedElement rightChild = (ITypedElement) rightChildren[i];
-					// Skip the imports.def file embedded in the samples
-					if (!rightChild.getName().equals("imports.def")) {
-						rightSet.put(rightChild, rightChild);
-						allSet.add(rightChild);
+				if (l < leftCount) {
+					final String leftName = getName(lefts[l]);
+					if ((name == null) || (leftName.compareTo(name) < 0)) {
+						name = leftName;
 					}
 				}
-			}
-
-			if (leftChildren != null) {
-				leftSet = new HashMap(10);
-				for (int i = 0; i < leftChildren.length; i++) {
-					EclipseResourceNode leftChild = (EclipseResourceNode) leftChildren[i];
-					final IResource resource = leftChild.getResource();
-					// Skip comparing any projects whose number is < 1.  These are assumed to be targets.
-					if (resource instanceof IProject) {
-						try {
-							final String number = ((IProject) resource).getPersistentProperty(IConstants.SAMPLE_NUMBER_KEY);
-							if ((number != null) && (number.charAt(0) == '0')) {
-								leftChild = null;
-							}
-						} catch (final CoreException e) {
-							// No problem. just don't do anything.
-						}
-					}
-					if (leftChild != null) {
-						leftSet.put(leftChild, leftChild);
-						allSet.add(leftChild);
+				if (r < rightCount) {
+					final String rightName = getName(rights[r]);
+					if ((name == null) || (rightName.compareTo(name) < 0)) {
+						name = rightName;
 					}
 				}
-			}
 
-			final Iterator e = allSet.iterator();
-			while (e.hasNext()) {
-				final Object keyChild = e.next();
+				final Object ancestorChild = (a < ancestorCount) && name.equals(getName(ancestors[a])) ? ancestors[a++] : null;
+				final Object leftChild = (l < leftCount) && name.equals(getName(lefts[l])) ? lefts[l++] : null;
+				final Object rightChild = (r < rightCount) && name.equals(getName(rights[r])) ? rights[r++] : null;
+				final Object keyChild = ancestorChild != null ? ancestorChild : (leftChild != null ? leftChild : rightChild);
 				content = false;
 
 				if (pm != null) {
@@ -545,11 +798,12 @@ public class Differencer {
 					updateProgress(pm, keyChild);
 				}
 
-				final Object ancestorChild = ancestorSet != null ? ancestorSet.get(keyChild) : null;
-				final Object leftChild = leftSet != null ? leftSet.get(keyChild) : null;
-				final Object rightChild = rightSet != null ? rightSet.get(keyChild) : null;
-
-				final int c = traverse(threeWay, node, pm, ancestorChild, leftChild, rightChild);
+				final Node child = traverse(threeWay, pending, pm, ancestorChild, leftChild, rightChild, depth + 1, deferDepth);
+				if (child == null) {
+					continue;
+				}
+				pending.add(child);
+				final int c = child.fCode;
 				// only mark the current node (folder) with the child change if the node
 				// is not already marked.
 				if (((c & CHANGE_TYPE_MASK) != NO_CHANGE) && (code == NO_CHANGE)) {
@@ -562,8 +816,102 @@ public class Differencer {
 		if (content) {
 			code = compare(threeWay, ancestor, left, right);
 		}
-		node.fCode = code;
-		return code;
+
+		Node[] children = null;
+		final int count = pending.size() - mark;
+		if (count > 0) {
+			final List childList = pending.subList(mark, pending.size());
+			children = (Node[]) childList.toArray(new Node[count]);
+			childList.clear();
+		}
+		if (code == NO_CHANGE) {
+			return null;
+		}
+		return new Node(ancestor, left, right, code, children, false);
+	}
+
+	/*
+	 * Returns the left children that take part in the compare. Projects whose
+	 * sample number is < 1 are assumed to be targets and are skipped.
+	 */
+	private Object[] filterLeftChildren(final Object[] leftChildren) {
+		if (leftChildren == null) {
+			return null;
+		}
+		final Object[] result = new Object[leftChildren.length];
+		int count = 0;
+		for (int i = 0; i < leftChildren.length; i++) {
+			final Object leftChild = leftChildren[i];
+			final IResource resource = leftChild instanceof EclipseResourceNode ? ((EclipseResourceNode) leftChild).getResource() : null;
+			if (!isTargetProject(resource)) {
+				result[count++] = leftChild;
+			}
+		}
+		return trim(result, count);
+	}
+
+	/*
+	 * Returns the right children that take part in the compare, skipping the
+	 * imports.def file embedded in the samples.
+	 */
+	private Object[] filterRightChildren(final Object[] rightChildren) {
+		if (rightChildren == null) {
+			return null;
+		}
+		final Object[] result = new Object[rightChildren.length];
+		int count = 0;
+		for (int i = 0; i < rightChildren.length; i++) {
+			if (!getName(rightChildren[i]).equals("imports.def")) {
+				result[count++] = rightChildren[i];
+			}
+		}
+		return trim(result, count);
+	}
+
+	private static String getName(final Object element) {
+		if (element instanceof ITypedElement) {
+			return ((ITypedElement) element).getName();
+		}
+		return String.valueOf(element);
+	}
+
+	/*
+	 * Sorts the given children in place by name and returns them.
+	 */
+	private static Object[] sortByName(final Object[] children) {
+		if ((children != null) && (children.length > 1)) {
+			Arrays.sort(children, NAME_ORDER);
+		}
+		return children;
+	}
+
+	/*
+	 * Returns whether the given resource is a project whose sample number is < 1.
+	 * These are assumed to be targets and are never compared.
+	 */
+	static boolean isTargetProject(final IResource resource) {
+		if (resource instanceof IProject) {
+			try {
+				final String number = ((IProject) resource).getPersistentProperty(IConstants.SAMPLE_NUMBER_KEY);
+				return (number != null) && (number.charAt(0) == '0');
+			} catch (final CoreException e) {
+				// No problem. just don't do anything.
+			}
+		}
+		return false;
+	}
+
+	private static boolean isFolder(final Object element) {
+		return (element instanceof ITypedElement) && ITypedElement.FOLDER_TYPE.equals(((ITypedElement) element).getType());
+	}
+
+	private static Object[] trim(final Object[] array, final int length) {
+		if (length == array.length) {
+			return array;
+		}
+		final Object[] result = new Object[length];
+		System.arraycopy(array, 0, result, 0, length);
+		return result;
 	}
 
 	/**
@@ -616,4 +964,31 @@ public class Differencer {
 	protected Object visit(final Object data, final int result, final Object ancestor, final Object left, final Object right) {
 		return new DiffNode((IDiffContainer) data, result, (ITypedElement) ancestor, (ITypedElement) left, (ITypedElement) right);
 	}
+
+	/**
+	 * Called instead of <code>visit</code> for folders whose contents were not
+	 * compared because they are at the defer depth. The result is the assumed
+	 * kind of difference: <code>CHANGE</code> unless one side is missing.
+	 * <p>
+	 * The <code>Differencer</code> implementation calls <code>visit</code>.
+	 * Subclasses may override to remember the folder and compare it later with
+	 * <code>findChildDifferences</code>.
+	 * </p>
+	 * 
+	 * @param data
+	 *            object returned from parent call to <code>visit</code>,
+	 *            possibly <code>null</code>
+	 * @param result
+	 *            the assumed kind of difference
+	 * @param ancestor
+	 *            the compare ancestor of the left and right inputs
+	 * @param left
+	 *            the left input to the compare
+	 * @param right
+	 *            the right input to the compare
+	 * @return the result, possibly <code>null</code>
+	 */
+	protected Object visitDeferred(final Object data, final int result, final Object ancestor, final Object left, final Object right) {
+		return visit(data, result, ancestor, left, right);
+	}
 }
@@ -15,15 +15,16 @@
 package org.eclipsercp.book.tools.compare;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 
 import org.eclipse.compare.IEditableContent;
 import org.eclipse.compare.IStreamContentAccessor;
 import org.eclipse.compare.ITypedElement;
 import org.eclipse.compare.ResourceNode;
 import org.eclipse.compare.structuremergeviewer.IStructureComparator;
+import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
@@ -35,6 +36,8 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
 
+import org.eclipsercp.book.tools.Utils;
+
 /**
  * A resource node that is not buffered. Changes made to it are applied directly
  * to the underlying resource.
@@ -44,38 +47,65 @@ import org.eclipse.core.runtime.Path;
 public class EclipseResourceNode extends ResourceNode {
 
 	public static byte[] readBytes(final InputStream in) {
-		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		try {
-			while (true) {
-				final int c = in.read();
-				if (c == -1) {
-					break;
-				}
-				bos.write(c);
-			}
+		return readBytes(in, -1);
+	}
 
+	/**
+	 * Reads the given stream fully in chunks and closes it. If the length of
+	 * the content is known (not negative) the result is read straight into an
+	 * exactly sized buffer. Returns <code>null</code> if the stream cannot be
+	 * read.
+	 */
+	public static byte[] readBytes(final InputStream in, final int length) {
+		try {
+			return Utils.readStream(in, length);
 		} catch (final IOException ex) {
 			return null;
+		}
+	}
 
-		} finally {
-			if (in != null) {
+	/*
+	 * Returns the length of the content of the given element if it can be
+	 * determined without reading it, otherwise -1.
+	 */
+	static int getLength(final ITypedElement element) {
+		if (element instanceof SampleStructureCreator.SampleFile) {
+			return ((SampleStructureCreator.SampleFile) element).getLength();
+		}
+		if (element instanceof ResourceNode) {
+			final IResource resource = ((ResourceNode) element).getResource();
+			final URI location = resource.getLocationURI();
+			if ((resource.getType() == IResource.FILE) && (location != null)) {
 				try {
-					in.close();
-				} catch (final IOException x) {
+					final long length = EFS.getStore(location).fetchInfo().getLength();
+					if ((length >= 0) && (length <= Integer.MAX_VALUE)) {
+						return (int) length;
+					}
+				} catch (final CoreException e) {
+					// fall through, the length is not known
 				}
 			}
-			try {
-				bos.close();
-			} catch (final IOException x) {
-			}
 		}
-		return bos.toByteArray();
+		return -1;
 	}
 
 	private boolean fDirty = false;
 
 	private IFile fDeleteFile;
 
+	private final CompareFilter fFilter;
+
+	/*
+	 * Content kind and digest of the file, valid as long as the modification
+	 * stamp of the file does not change.
+	 */
+	private int fContentKind = ContentClassifier.UNKNOWN;
+	private long fContentKindStamp = IResource.NULL_STAMP;
+	private byte[] fDigest;
+	private long fDigestStamp = IResource.NULL_STAMP;
+	private byte[] fNormalizedDigest;
+	private long fNormalizedDigestStamp = IResource.NULL_STAMP;
+
 	/**
 	 * Creates a <code>ResourceNode</code> for the given resource.
 	 * 
@@ -83,7 +113,21 @@ public class EclipseResourceNode extends ResourceNode {
 	 *            the resource
 	 */
 	public EclipseResourceNode(final IResource resource) {
+		this(resource, CompareFilter.getDefault());
+	}
+
+	/**
+	 * Creates a <code>ResourceNode</code> for the given resource whose
+	 * children are filtered with the given filter.
+	 * 
+	 * @param resource
+	 *            the resource
+	 * @param filter
+	 *            the filter for the children of the resource
+	 */
+	public EclipseResourceNode(final IResource resource, final CompareFilter filter) {
 		super(resource);
+		fFilter = filter;
 	}
 
 	/**
@@ -122,13 +166,95 @@ public class EclipseResourceNode extends ResourceNode {
 		}
 	}
 
-	// Filter out CVS, bin, and derived resources
+	/**
+	 * Returns a digest of the content of the file, or <code>null</code> if
+	 * this node is not a readable file. The digest is streamed from the file
+	 * without buffering its content and is kept until the file changes.
+	 */
+	public synchronized byte[] getDigest() {
+		final IResource resource = getResource();
+		if (!(resource instanceof IFile)) {
+			return null;
+		}
+		final long stamp = resource.getModificationStamp();
+		if ((fDigest == null) || (stamp != fDigestStamp)) {
+			try {
+				fDigest = Utils.digest(((IFile) resource).getContents());
+				fDigestStamp = stamp;
+			} catch (final CoreException e) {
+				return null;
+			} catch (final IOException e) {
+				return null;
+			}
+		}
+		return fDigest;
+	}
+
+	/**
+	 * Returns a digest of the whitespace normalized content of the file, or
+	 * <code>null</code> if this node is not a readable file. Like the plain
+	 * digest it is kept until the file changes.
+	 * 
+	 * @see Utils#normalizedDigest(InputStream)
+	 */
+	public synchronized byte[] getNormalizedDigest() {
+		final IResource resource = getResource();
+		if (!(resource instanceof IFile)) {
+			return null;
+		}
+		final long stamp = resource.getModificationStamp();
+		if ((fNormalizedDigest == null) || (stamp != fNormalizedDigestStamp)) {
+			try {
+				fNormalizedDigest = Utils.normalizedDigest(((IFile) resource).getContents());
+				fNormalizedDigestStamp = stamp;
+			} catch (final CoreException e) {
+				return null;
+			} catch (final IOException e) {
+				return null;
+			}
+		}
+		return fNormalizedDigest;
+	}
+
+	/**
+	 * Returns whether this node is a file with binary content. The content is
+	 * only sniffed if the file extension does not decide.
+	 */
+	public synchronized boolean isBinary() {
+		final IResource resource = getResource();
+		if (!(resource instanceof IFile)) {
+			return false;
+		}
+		final long stamp = resource.getModificationStamp();
+		if ((fContentKind == ContentClassifier.UNKNOWN) || (stamp != fContentKindStamp)) {
+			InputStream in = null;
+			if (ContentClassifier.classifyName(resource.getName()) == ContentClassifier.UNKNOWN) {
+				try {
+					in = ((IFile) resource).getContents();
+				} catch (final CoreException e) {
+					// classified as text
+				}
+			}
+			fContentKind = ContentClassifier.classify(resource.getName(), in);
+			fContentKindStamp = stamp;
+		}
+		return fContentKind == ContentClassifier.BINARY;
+	}
+
+	/**
+	 * Returns whether the given resource is left out of compares: derived
+	 * resources and resources excluded by the given filter.
+	 */
+	static boolean isFiltered(final IResource resource, final CompareFilter filter) {
+		return resource.isDerived() || filter.isFiltered(resource.getFullPath().makeRelative().toString(), resource.getType() != IResource.FILE);
+	}
+
+	// Filter out derived resources and those excluded by the compare filter
 	protected IStructureComparator createChild(final IResource child) {
-		final String name = child.getName();
-		if (child.isDerived() || name.equals("bin") || name.equals("CVS")) {
+		if (isFiltered(child, fFilter)) {
 			return null;
 		}
-		return new EclipseResourceNode(child);
+		return new EclipseResourceNode(child, fFilter);
 	}
 
 	private void createParents(final IResource r) {
@@ -178,10 +304,10 @@ public class EclipseResourceNode extends ResourceNode {
 					} else {
 						childResource = folder.getFolder(new Path(other.getName()));
 					}
-					child = new EclipseResourceNode(childResource);
+					child = new EclipseResourceNode(childResource, fFilter);
 				} else {
 					final IFile file = folder.getFile(new Path(other.getName()));
-					child = new EclipseResourceNode(file);
+					child = new EclipseResourceNode(file, fFilter);
 				}
 			}
 		}
@@ -205,7 +331,7 @@ public class EclipseResourceNode extends ResourceNode {
 			try {
 				final InputStream is = ((IStreamContentAccessor) other).getContents();
 				if (is != null) {
-					final byte[] bytes = readBytes(is);
+					final byte[] bytes = readBytes(is, getLength(other));
 					if (bytes != null) {
 						dst.setContent(bytes);
 					}
@@ -41,8 +41,23 @@ import org.eclipse.swt.graphics.Image;
  */
 public class FileNode extends BufferedContent implements IEncodedStreamContentAccessor, IStructureComparator, ITypedElement, IEditableContent, IModificationDate {
 
+	/*
+	 * Attributes are read at most once per node and kept for the lifetime of
+	 * the compare, since every stat is expensive on network file systems. The
+	 * modification date is read again once the content is read again, so it
+	 * matches the content that was last compared.
+	 */
+	private static final int UNKNOWN = 0;
+	private static final int FILE = 1;
+	private static final int DIRECTORY = 2;
+
 	private final File fFile;
+	private final String fName;
+	private final String fRelativePath;
+	private final CompareFilter fFilter;
 	private ArrayList fChildren;
+	private int fKind = UNKNOWN;
+	private long fModificationDate = -1;
 
 	/**
 	 * Creates a <code>ResourceNode</code> for the given resource.
@@ -51,8 +66,26 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	 *            the resource
 	 */
 	public FileNode(final File file) {
+		this(file, file.getName(), CompareFilter.getDefault());
+	}
+
+	/**
+	 * Creates a <code>FileNode</code> for the given file whose children are
+	 * filtered with the given filter.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param relativePath
+	 *            the path of the file relative to the compare root
+	 * @param filter
+	 *            the filter for the children of the file
+	 */
+	public FileNode(final File file, final String relativePath, final CompareFilter filter) {
 		fFile = file;
 		Assert.isNotNull(file);
+		fName = file.getName();
+		fRelativePath = relativePath;
+		fFilter = filter;
 	}
 
 	/**
@@ -70,10 +103,15 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	 *         <code>null</code>
 	 */
 	protected IStructureComparator createChild(final File child) {
-		if (child.getName().equals("CVS") || child.getName().equals("bin")) {
+		final FileNode node = new FileNode(child, fRelativePath + '/' + child.getName(), fFilter);
+		final String path = node.fRelativePath;
+		final boolean asFile = fFilter.isFiltered(path, false);
+		// only stat the child if the rules treat files and folders differently
+		final boolean filtered = asFile == fFilter.isFiltered(path, true) ? asFile : fFilter.isFiltered(path, node.isDirectory());
+		if (filtered) {
 			return null;
 		}
-		return new FileNode(child);
+		return node;
 	}
 
 	protected InputStream createStream() throws CoreException {
@@ -88,7 +126,7 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	public boolean equals(final Object other) {
 		if (other instanceof ITypedElement) {
 			final String otherName = ((ITypedElement) other).getName();
-			return getName().equals(otherName);
+			return fName.equals(otherName);
 		}
 		return super.equals(other);
 	}
@@ -106,8 +144,17 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	public Object[] getChildren() {
 		if (fChildren == null) {
 			fChildren = new ArrayList();
-			if (fFile.isDirectory()) {
-				final File members[] = fFile.listFiles();
+			// listFiles() returns null for anything but a readable directory, so
+			// it doubles as the directory check; an unreadable directory is
+			// still a directory, compared as an empty one
+			final File members[] = fKind == FILE ? null : fFile.listFiles();
+			if (members != null) {
+				fKind = DIRECTORY;
+			} else if (fKind == UNKNOWN) {
+				fKind = fFile.isDirectory() ? DIRECTORY : FILE;
+			}
+			if (members != null) {
+				fChildren.ensureCapacity(members.length);
 				for (int i = 0; i < members.length; i++) {
 					final IStructureComparator child = createChild(members[i]);
 					if (child != null) {
@@ -123,7 +170,9 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	 * see IStreamContentAccessor.getContents
 	 */
 	public InputStream getContents() throws CoreException {
-		if (fFile.isFile()) {
+		if (!isDirectory()) {
+			// the file may have changed since its date was read
+			fModificationDate = -1;
 			try {
 				return new FileInputStream(fFile);
 			} catch (final FileNotFoundException e) {
@@ -146,10 +195,10 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	 * (non Javadoc) see ITypedElement.getImage
 	 */
 	public Image getImage() {
-		if (fFile.isDirectory()) {
+		if (isDirectory()) {
 			return CompareUI.getImage(ITypedElement.FOLDER_TYPE);
 		}
-		final IPath path = new Path(fFile.getName());
+		final IPath path = new Path(fName);
 		if (path.getFileExtension() == null) {
 			return null;
 		}
@@ -160,27 +209,27 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	 * see IModificationDate.getModificationDate
 	 */
 	public long getModificationDate() {
-		return fFile.lastModified();
+		if (fModificationDate < 0) {
+			fModificationDate = fFile.lastModified();
+		}
+		return fModificationDate;
 	}
 
 	/* (non Javadoc)
 	 * see ITypedElement.getName
 	 */
 	public String getName() {
-		if (fFile != null) {
-			return fFile.getName();
-		}
-		return null;
+		return fName;
 	}
 
 	/* (non Javadoc)
 	 * see ITypedElement.getType
 	 */
 	public String getType() {
-		if (fFile.isDirectory()) {
+		if (isDirectory()) {
 			return ITypedElement.FOLDER_TYPE;
 		}
-		final String s = new Path(fFile.getName()).getFileExtension();
+		final String s = new Path(fName).getFileExtension();
 		if (s != null) {
 			return s;
 		}
@@ -194,7 +243,14 @@ public class FileNode extends BufferedContent implements IEncodedStreamContentAc
 	 * @return a hash code value for this object.
 	 */
 	public int hashCode() {
-		return getName().hashCode();
+		return fName.hashCode();
+	}
+
+	private boolean isDirectory() {
+		if (fKind == UNKNOWN) {
+			fKind = fFile.isDirectory() ? DIRECTORY : FILE;
+		}
+		return fKind == DIRECTORY;
 	}
 
 	/* (non Javadoc)
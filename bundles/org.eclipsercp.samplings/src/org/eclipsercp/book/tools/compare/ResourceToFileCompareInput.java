@@ -16,28 +16,51 @@ package org.eclipsercp.book.tools.compare;
 
 import java.lang.reflect.InvocationTargetException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.compare.CompareConfiguration;
 import org.eclipse.compare.CompareEditorInput;
 import org.eclipse.compare.IContentChangeListener;
 import org.eclipse.compare.IContentChangeNotifier;
+import org.eclipse.compare.IStreamContentAccessor;
 import org.eclipse.compare.ITypedElement;
 import org.eclipse.compare.ResourceNode;
+import org.eclipse.compare.internal.BinaryCompareViewer;
 import org.eclipse.compare.internal.BufferedResourceNode;
 import org.eclipse.compare.internal.CompareEditor;
 import org.eclipse.compare.internal.Utilities;
+import org.eclipse.compare.structuremergeviewer.DiffElement;
 import org.eclipse.compare.structuremergeviewer.DiffNode;
 import org.eclipse.compare.structuremergeviewer.DiffTreeViewer;
+import org.eclipse.compare.structuremergeviewer.ICompareInput;
 import org.eclipse.compare.structuremergeviewer.IDiffContainer;
 import org.eclipse.compare.structuremergeviewer.IDiffElement;
 import org.eclipse.compare.structuremergeviewer.IStructureComparator;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.IMenuManager;
@@ -45,8 +68,11 @@ import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
 
+import org.eclipsercp.book.tools.PhaseEvent;
+
 /**
  * A two-way or three-way compare for arbitrary IResources.
  */
@@ -57,15 +83,115 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		private boolean fDirty = false;
 		private ITypedElement fLastId;
 		private String fLastName;
+		private volatile boolean fDeferred = false;
+		private Differencer.Subtree fSubtree;
+		private int fGeneration;
+		private PendingElement fPending;
+		private final IPath fPath;
 
 		public MyDiffNode(final IDiffContainer parent, final int description, final ITypedElement ancestor, final ITypedElement left, final ITypedElement right) {
 			super(parent, description, ancestor, left, right);
+			if (left instanceof EclipseResourceNode) {
+				fPath = ((EclipseResourceNode) left).getResource().getFullPath();
+			} else if (parent instanceof MyDiffNode) {
+				fPath = ((MyDiffNode) parent).fPath.append(right.getName());
+			} else {
+				fPath = Path.ROOT;
+			}
+			fNodesByPath.put(fPath, this);
 		}
 
 		void clearDirty() {
 			fDirty = false;
 		}
 
+		/*
+		 * Compares the contents of a deferred folder unless that was already done.
+		 * May be called from any thread; the node is not locked while comparing.
+		 */
+		Differencer.Subtree computeChildren(final IProgressMonitor pm) {
+			final int generation;
+			synchronized (this) {
+				if (fSubtree != null) {
+					return fSubtree;
+				}
+				generation = fGeneration;
+			}
+			final Differencer.Subtree subtree = fDifferencer.findChildDifferences(pm, getLeft(), getRight());
+			synchronized (this) {
+				// a folder that changed while it was compared is compared again
+				if ((fSubtree == null) && (generation == fGeneration)) {
+					fSubtree = subtree;
+				}
+			}
+			return subtree;
+		}
+
+		void defer() {
+			fDeferred = true;
+			fDeferredNodes.add(this);
+		}
+
+		/*
+		 * Creates the children of a deferred folder once they are computed. When
+		 * the tree is shown, a folder the background job has not got to yet is
+		 * moved to the front of the job, which expands it when done; without a
+		 * viewer it is compared in the calling thread. A folder whose contents
+		 * turn out to be equal is removed from the tree later in the UI thread,
+		 * so the list of children of its parent does not change while it may be
+		 * walked. Only called in the UI thread, or in one thread without a
+		 * viewer.
+		 */
+		void expand() {
+			Differencer.Subtree subtree;
+			synchronized (this) {
+				if (!fDeferred) {
+					return;
+				}
+				subtree = fSubtree;
+				if ((subtree == null) && (fDiffViewer != null)) {
+					requestExpand(this);
+					return;
+				}
+				if (subtree != null) {
+					fDeferred = false;
+					fSubtree = null;
+				}
+			}
+			if (subtree == null) {
+				subtree = computeChildren(null);
+				synchronized (this) {
+					if (!fDeferred) {
+						return;
+					}
+					fDeferred = false;
+					fSubtree = null;
+				}
+			}
+			if (subtree.getKind() == Differencer.NO_CHANGE) {
+				final IDiffContainer parent = getParent();
+				if (parent == null) {
+					return;
+				}
+				if (fDiffViewer == null) {
+					removeNode(this);
+					return;
+				}
+				fDiffViewer.getControl().getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						if (getParent() == parent) {
+							removeNode(MyDiffNode.this);
+						}
+						if (!fDiffViewer.getControl().isDisposed()) {
+							fDiffViewer.refresh(parent);
+						}
+					}
+				});
+			} else {
+				fDifferencer.visitChildren(subtree, this);
+			}
+		}
+
 		public void contentChanged(final IContentChangeNotifier source) {
 			fireChange();
 		}
@@ -79,11 +205,37 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 			}
 			setDirty(true);
 			try {
-				commit(new NullProgressMonitor(), this);
+				commitNode(new NullProgressMonitor(), this);
 			} catch (final CoreException e) {
 			}
 		}
 
+		/*
+		 * Expands a deferred folder, which is what the diff viewer asks for when
+		 * the folder is revealed. Until its contents are compared a placeholder is
+		 * shown. Walks of the diff tree that should not compare deferred folders
+		 * use getExpandedChildren instead.
+		 */
+		public IDiffElement[] getChildren() {
+			expand();
+			if (fDeferred) {
+				synchronized (this) {
+					if (fPending == null) {
+						fPending = new PendingElement(this);
+					}
+					return new IDiffElement[] { fPending };
+				}
+			}
+			return super.getChildren();
+		}
+
+		/*
+		 * Returns the children created so far without expanding a deferred folder.
+		 */
+		IDiffElement[] getExpandedChildren() {
+			return super.getChildren();
+		}
+
 		public ITypedElement getId() {
 			final ITypedElement id = super.getId();
 			if (id == null) {
@@ -93,6 +245,23 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 			return id;
 		}
 
+		public boolean hasChildren() {
+			return fDeferred || super.hasChildren();
+		}
+
+		/*
+		 * Discards the contents computed for a deferred folder after a change
+		 * inside it, so they are computed again when the folder is expanded.
+		 */
+		synchronized void invalidate() {
+			fSubtree = null;
+			fGeneration++;
+		}
+
+		boolean isDeferred() {
+			return fDeferred;
+		}
+
 		public String getName() {
 			if (fLastName == null) {
 				fLastName = super.getName();
@@ -104,6 +273,40 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		}
 	}
 
+	/*
+	 * Stands in for the children of a deferred folder in the viewer until the
+	 * background job has compared the folder.
+	 */
+	private static class PendingElement extends DiffElement {
+
+		PendingElement(final IDiffContainer parent) {
+			super(parent, Differencer.NO_CHANGE);
+		}
+
+		public Image getImage() {
+			return null;
+		}
+
+		public String getName() {
+			return "Comparing...";
+		}
+
+		public String getType() {
+			return ITypedElement.UNKNOWN_TYPE;
+		}
+	}
+
+	/*
+	 * Returns the children of the given node created so far. Deferred folders
+	 * are not expanded, they contain no nodes that could have been edited.
+	 */
+	private static IDiffElement[] getCreatedChildren(final DiffNode node) {
+		if (node instanceof MyDiffNode) {
+			return ((MyDiffNode) node).getExpandedChildren();
+		}
+		return node.getChildren();
+	}
+
 	/*
 	 * Recursively walks the diff tree and commits all changes.
 	 */
@@ -123,7 +326,7 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 			((EclipseResourceNode) right).commit(pm);
 		}
 
-		final IDiffElement[] children = node.getChildren();
+		final IDiffElement[] children = getCreatedChildren(node);
 		if (children != null) {
 			for (int i = 0; i < children.length; i++) {
 				final IDiffElement element = children[i];
@@ -134,7 +337,22 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		}
 	}
 
+	/*
+	 * Depth at which folders are compared lazily: the workspace root is at
+	 * depth 0, projects at 1 and their top-level folders (such as source
+	 * folders) at 2, so the folders inside them are deferred.
+	 */
+	private static final int LAZY_DEPTH = 3;
+
 	private boolean fThreeWay = false;
+	private boolean fLazy = false;
+	private Differencer fDifferencer;
+	private final List fDeferredNodes = Collections.synchronizedList(new LinkedList());
+	private Job fExpandJob;
+	private final Map fNodesByPath = Collections.synchronizedMap(new HashMap());
+	private IResourceChangeListener fResourceListener;
+	private boolean fCommitting;
+	private CompareFilter fFilter = CompareFilter.getDefault();
 	private Object fRoot;
 	private IStructureComparator fAncestor;
 	private IStructureComparator fLeft;
@@ -158,6 +376,20 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		initializeCompareConfiguration();
 	}
 
+	/*
+	 * Commits the given node. The resource deltas caused by the commit are not
+	 * re-compared so that nodes the user is working on stay in the tree.
+	 */
+	private void commitNode(final IProgressMonitor pm, final DiffNode node) throws CoreException {
+		final boolean committing = fCommitting;
+		fCommitting = true;
+		try {
+			commit(pm, node);
+		} finally {
+			fCommitting = committing;
+		}
+	}
+
 	private void collectDirtyResources(final Object o, final Set collector) {
 		if (o instanceof DiffNode) {
 			final DiffNode node = (DiffNode) o;
@@ -184,7 +416,7 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 				}
 			}
 
-			final IDiffElement[] children = node.getChildren();
+			final IDiffElement[] children = getCreatedChildren(node);
 			if (children != null) {
 				for (int i = 0; i < children.length; i++) {
 					final IDiffElement element = children[i];
@@ -196,31 +428,119 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		}
 	}
 
-	private void copy(final Object element) {
-		if (element instanceof DiffNode) {
-			((DiffNode) element).copy(false);
-			try {
-				commit(new NullProgressMonitor(), (DiffNode) element);
-			} catch (final CoreException e) {
-			}
+	/*
+	 * Adds the file write or deletion needed to make the workspace file at the
+	 * given path match the given sample element.
+	 */
+	private static void addCopy(final CopyToWorkspaceOperation operation, final IPath path, final ITypedElement right) {
+		final IFile file = ResourcesPlugin.getWorkspace().getRoot().getFile(path);
+		if (right == null) {
+			operation.addDelete(file);
+		} else if (right instanceof IStreamContentAccessor) {
+			operation.addCopy(file, (IStreamContentAccessor) right);
 		}
-		if (element instanceof IDiffContainer) {
-			final IDiffElement[] children = ((IDiffContainer) element).getChildren();
-			for (int i = 0; i < children.length; i++) {
-				final IDiffElement node = children[i];
-				copy(node);
+	}
+
+	/*
+	 * Adds the file writes and deletions for the differences inside a deferred
+	 * folder, taken from its compared subtree without creating diff nodes.
+	 */
+	private static void collectCopies(final Differencer.Subtree subtree, final IPath path, final CopyToWorkspaceOperation operation) {
+		new Differencer() {
+			protected Object visit(final Object parent, final int description, final Object ancestor, final Object left, final Object right) {
+				final ITypedElement element = (ITypedElement) (right != null ? right : left);
+				final IPath childPath = ((IPath) parent).append(element.getName());
+				if (!ITypedElement.FOLDER_TYPE.equals(element.getType())) {
+					addCopy(operation, childPath, (ITypedElement) right);
+				}
+				return childPath;
 			}
+		}.visitChildren(subtree, path);
+	}
+
+	/*
+	 * Adds the file writes and deletions needed to make the workspace match the
+	 * sample for the given element and everything below it. Deferred folders
+	 * are not expanded but added to the given list, their copies are computed
+	 * in the background.
+	 */
+	private void collectCopies(final Object element, final CopyToWorkspaceOperation operation, final Set visited, final List deferred) {
+		if (!(element instanceof MyDiffNode)) {
+			return;
+		}
+		final MyDiffNode node = (MyDiffNode) element;
+		if (!visited.add(node.fPath)) {
+			return;
 		}
-	};
+		if (node.isDeferred()) {
+			deferred.add(node);
+			return;
+		}
+		if (!ITypedElement.FOLDER_TYPE.equals(node.getType()) && (node.fPath.segmentCount() > 1)) {
+			addCopy(operation, node.fPath, node.getRight());
+		}
+		final IDiffElement[] children = node.getExpandedChildren();
+		for (int i = 0; i < children.length; i++) {
+			collectCopies(children[i], operation, visited, deferred);
+		}
+	}
 
+	/*
+	 * Copies the selected elements from the sample into the workspace as a
+	 * single batched workspace operation. The diff tree is updated from the
+	 * resulting resource delta.
+	 */
 	private void copyAllRightToLeft(final ISelection selection) {
-		if (selection instanceof IStructuredSelection) {
-			final Iterator elements = ((IStructuredSelection) selection).iterator();
-			while (elements.hasNext()) {
-				final Object element = elements.next();
-				copy(element);
+		if (!(selection instanceof IStructuredSelection)) {
+			return;
+		}
+		final CopyToWorkspaceOperation operation = new CopyToWorkspaceOperation();
+		final Set visited = new HashSet();
+		final List deferred = new ArrayList();
+		for (final Iterator elements = ((IStructuredSelection) selection).iterator(); elements.hasNext();) {
+			collectCopies(elements.next(), operation, visited, deferred);
+		}
+		if (deferred.isEmpty()) {
+			scheduleCopy(operation);
+			return;
+		}
+		// deferred folders are compared off the UI thread before copying
+		final Job compareJob = new Job("Comparing folders to copy") {
+			protected IStatus run(final IProgressMonitor monitor) {
+				monitor.beginTask(getName(), deferred.size());
+				for (int i = 0; i < deferred.size(); i++) {
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					final MyDiffNode node = (MyDiffNode) deferred.get(i);
+					collectCopies(node.computeChildren(null), node.fPath, operation);
+					monitor.worked(1);
+				}
+				monitor.done();
+				scheduleCopy(operation);
+				return Status.OK_STATUS;
 			}
+		};
+		compareJob.setUser(true);
+		compareJob.schedule();
+	}
+
+	/*
+	 * Runs the given copies as a workspace job.
+	 */
+	private static void scheduleCopy(final CopyToWorkspaceOperation operation) {
+		if (operation.isEmpty()) {
+			return;
 		}
+		final WorkspaceJob job = new WorkspaceJob("Copying into workspace") {
+			public IStatus runInWorkspace(final IProgressMonitor monitor) throws CoreException {
+				operation.run(monitor);
+				return Status.OK_STATUS;
+			}
+		};
+		job.setRule(operation.getSchedulingRule());
+		job.setUser(true);
+		job.schedule();
 	}
 
 	public Viewer createDiffViewer(final Composite parent) {
@@ -275,6 +595,19 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		return fDiffViewer;
 	}
 
+	/*
+	 * Binary files never go to a text viewer.
+	 */
+	public Viewer findContentViewer(final Viewer oldViewer, final ICompareInput input, final Composite parent) {
+		if (ContentClassifier.isBinaryInput(input)) {
+			if (oldViewer instanceof BinaryCompareViewer) {
+				return oldViewer;
+			}
+			return new BinaryCompareViewer(parent, getCompareConfiguration());
+		}
+		return super.findContentViewer(oldViewer, input, parent);
+	}
+
 	/* (non Javadoc)
 	 * see IAdaptable.getAdapter
 	 */
@@ -288,7 +621,7 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 	 * can be found for the <code>IResource</code>.
 	 */
 	private IStructureComparator getStructure(final IResource input) {
-		final ResourceNode node = new EclipseResourceNode(input);
+		final ResourceNode node = new EclipseResourceNode(input, fFilter);
 		return node;
 	}
 
@@ -309,6 +642,35 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		cc.setRightLabel("Sample " + sample2 + " (in file system)");
 	}
 
+	/*
+	 * Refreshes the compared resources, only those inside the scope of a scoped
+	 * compare. For a scope that does not exist yet the nearest existing parent
+	 * is refreshed, without descending into its other children.
+	 */
+	private void refresh(final IProgressMonitor pm) throws CoreException {
+		final IPath[] scope = fFilter.getScope();
+		if ((scope == null) || (fLeftResource.getType() != IResource.ROOT)) {
+			fLeftResource.refreshLocal(IResource.DEPTH_INFINITE, pm);
+			return;
+		}
+		final IWorkspaceRoot root = (IWorkspaceRoot) fLeftResource;
+		for (int i = 0; i < scope.length; i++) {
+			IPath path = scope[i].makeAbsolute();
+			IResource resource = root.findMember(path);
+			if (resource != null) {
+				resource.refreshLocal(IResource.DEPTH_INFINITE, pm);
+				continue;
+			}
+			while ((resource == null) && (path.segmentCount() > 1)) {
+				path = path.removeLastSegments(1);
+				resource = root.findMember(path);
+			}
+			if (resource != null) {
+				resource.refreshLocal(IResource.DEPTH_ONE, pm);
+			}
+		}
+	}
+
 	/*
 	 * Returns true if compare can be executed for the given selection.
 	 */
@@ -321,9 +683,11 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 	 */
 	public Object prepareInput(final IProgressMonitor pm) throws InvocationTargetException {
 
+		final PhaseEvent event = PhaseEvent.begin(PhaseEvent.PREPARE_INPUT);
+		event.setSample(sample2);
 		try {
 			// fix for PR 1GFMLFB: ITPUI:WIN2000 - files that are out of sync with the file system appear as empty              
-			fLeftResource.refreshLocal(IResource.DEPTH_INFINITE, pm);
+			refresh(pm);
 			//fRightResource.refreshLocal(IResource.DEPTH_INFINITE, pm);
 			if (fThreeWay && (fAncestorResource != null)) {
 				pm.beginTask(Utilities.getString("ResourceCompare.taskName"), IProgressMonitor.UNKNOWN); //$NON-NLS-1$
@@ -352,23 +716,265 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 					}
 					return node;
 				}
+
+				protected Object visitDeferred(final Object parent, final int description, final Object ancestor, final Object left, final Object right) {
+					final MyDiffNode node = (MyDiffNode) visit(parent, description, ancestor, left, right);
+					node.defer();
+					return node;
+				}
 			};
+			if (fLazy && !fThreeWay) {
+				d.setDeferDepth(LAZY_DEPTH);
+			}
+			d.setIgnoreWhitespace(Boolean.TRUE.equals(getCompareConfiguration().getProperty(CompareConfiguration.IGNORE_WHITESPACE)));
+			fDifferencer = d;
 
-			fRoot = d.findDifferences(fThreeWay, pm, null, fAncestor, fLeft, fRight);
+			fNodesByPath.clear();
+			final PhaseEvent compareEvent = PhaseEvent.begin(PhaseEvent.COMPARE);
+			try {
+				fRoot = d.findDifferences(fThreeWay, pm, null, fAncestor, fLeft, fRight);
+			} finally {
+				compareEvent.end();
+			}
+			scheduleExpandJob();
+			addResourceListener();
 			return fRoot;
 
 		} catch (final CoreException ex) {
 			throw new InvocationTargetException(ex);
 		} finally {
+			event.end();
 			pm.done();
 		}
 	}
 
+	protected void handleDispose() {
+		if (fExpandJob != null) {
+			fExpandJob.cancel();
+		}
+		if (fResourceListener != null) {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(fResourceListener);
+			fResourceListener = null;
+		}
+		super.handleDispose();
+	}
+
+	/*
+	 * Keeps the diff tree current while the editor is open. Changed files and
+	 * added or removed resources are collected from each delta and re-compared
+	 * in the UI thread; only the affected nodes are replaced.
+	 */
+	private void addResourceListener() {
+		if ((fResourceListener != null) || fThreeWay) {
+			return;
+		}
+		fResourceListener = new IResourceChangeListener() {
+			public void resourceChanged(final IResourceChangeEvent event) {
+				if (fCommitting) {
+					return;
+				}
+				final List changed = new ArrayList();
+				try {
+					event.getDelta().accept(new IResourceDeltaVisitor() {
+						public boolean visit(final IResourceDelta delta) {
+							final IResource resource = delta.getResource();
+							if ((resource.getType() != IResource.ROOT) && EclipseResourceNode.isFiltered(resource, fFilter)) {
+								return false;
+							}
+							switch (delta.getKind()) {
+								case IResourceDelta.ADDED:
+								case IResourceDelta.REMOVED:
+									if (resource.getType() != IResource.ROOT) {
+										changed.add(resource.getFullPath());
+										return false;
+									}
+									return true;
+								case IResourceDelta.CHANGED:
+									if ((resource.getType() == IResource.FILE) && ((delta.getFlags() & IResourceDelta.CONTENT) != 0)) {
+										changed.add(resource.getFullPath());
+									}
+									return true;
+							}
+							return true;
+						}
+					});
+				} catch (final CoreException e) {
+					return;
+				}
+				if (changed.isEmpty() || (fDiffViewer == null)) {
+					return;
+				}
+				fDiffViewer.getControl().getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						if (fDiffViewer.getControl().isDisposed()) {
+							return;
+						}
+						for (final Iterator it = changed.iterator(); it.hasNext();) {
+							updateNode((IPath) it.next());
+						}
+					}
+				});
+			}
+		};
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(fResourceListener, IResourceChangeEvent.POST_CHANGE);
+	}
+
+	/*
+	 * Returns the element of the sample structure at the given workspace path,
+	 * or null if the sample has no such element.
+	 */
+	private Object findSampleElement(final IPath path) {
+		Object current = fRight;
+		final String[] segments = path.segments();
+		for (int i = 0; (i < segments.length) && (current != null); i++) {
+			final Object[] children = current instanceof IStructureComparator ? ((IStructureComparator) current).getChildren() : null;
+			current = null;
+			for (int j = 0; (children != null) && (j < children.length); j++) {
+				if (((ITypedElement) children[j]).getName().equals(segments[i])) {
+					current = children[j];
+					break;
+				}
+			}
+		}
+		return current;
+	}
+
+	/*
+	 * Removes the given node and all nodes below it.
+	 */
+	private void removeNode(final MyDiffNode node) {
+		final IDiffElement[] children = node.getExpandedChildren();
+		for (int i = 0; i < children.length; i++) {
+			if (children[i] instanceof MyDiffNode) {
+				removeNode((MyDiffNode) children[i]);
+			}
+		}
+		fNodesByPath.remove(node.fPath);
+		final IDiffContainer parent = node.getParent();
+		if (parent != null) {
+			parent.remove(node);
+		}
+	}
+
+	/*
+	 * Re-compares the resource at the given path with the sample and patches
+	 * the diff tree in place. If the resource is inside a folder that had no
+	 * differences, that whole folder is re-compared since it has no node yet.
+	 */
+	private void updateNode(final IPath path) {
+		IPath childPath = path;
+		IPath parentPath = path.removeLastSegments(1);
+		while (!fNodesByPath.containsKey(parentPath) && (parentPath.segmentCount() > 0)) {
+			childPath = parentPath;
+			parentPath = parentPath.removeLastSegments(1);
+		}
+		final MyDiffNode parent = (MyDiffNode) fNodesByPath.get(parentPath);
+		if (parent == null) {
+			return;
+		}
+		if (parent.isDeferred()) {
+			// not expanded yet, it will be compared with the new contents
+			parent.invalidate();
+			return;
+		}
+
+		final IResource resource = ResourcesPlugin.getWorkspace().getRoot().findMember(childPath);
+		if ((resource != null) && (EclipseResourceNode.isFiltered(resource, fFilter) || Differencer.isTargetProject(resource))) {
+			return;
+		}
+		final MyDiffNode existing = (MyDiffNode) fNodesByPath.get(childPath);
+		if (existing != null) {
+			removeNode(existing);
+		}
+		final Object left = resource != null ? new EclipseResourceNode(resource, fFilter) : null;
+		final Object right = findSampleElement(childPath);
+		if ((left != null) || (right != null)) {
+			fDifferencer.visitSubtree(fDifferencer.findChildDifferences(null, left, right), parent);
+		}
+
+		// drop folders that no longer contain any differences
+		MyDiffNode node = parent;
+		while ((node != fRoot) && !node.hasChildren() && (node.getLeft() != null) && (node.getRight() != null) && ITypedElement.FOLDER_TYPE.equals(node.getType())) {
+			final IDiffContainer container = node.getParent();
+			removeNode(node);
+			if (!(container instanceof MyDiffNode)) {
+				break;
+			}
+			node = (MyDiffNode) container;
+		}
+		fDiffViewer.refresh(node);
+	}
+
+	/*
+	 * Moves the given deferred folder to the front of the background job, so
+	 * a folder the user expands is compared next.
+	 */
+	private void requestExpand(final MyDiffNode node) {
+		synchronized (fDeferredNodes) {
+			fDeferredNodes.remove(node);
+			fDeferredNodes.add(0, node);
+		}
+		scheduleExpandJob();
+	}
+
+	/*
+	 * Compares the deferred folders in the background in the order they were
+	 * created, so the top of the tree fills in first, except for folders the
+	 * user expands, which are moved to the front. Results are applied in the
+	 * UI thread.
+	 */
+	private synchronized void scheduleExpandJob() {
+		if (fExpandJob != null) {
+			// runs again after the current run if it is running
+			fExpandJob.schedule();
+			return;
+		}
+		if (fDeferredNodes.isEmpty()) {
+			return;
+		}
+		fExpandJob = new Job("Comparing folders") {
+			protected IStatus run(final IProgressMonitor monitor) {
+				monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+				while (true) {
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					final MyDiffNode node;
+					synchronized (fDeferredNodes) {
+						if (fDeferredNodes.isEmpty()) {
+							break;
+						}
+						node = (MyDiffNode) fDeferredNodes.remove(0);
+					}
+					if (node.isDeferred()) {
+						node.computeChildren(null);
+						if (fDiffViewer != null) {
+							fDiffViewer.getControl().getDisplay().asyncExec(new Runnable() {
+								public void run() {
+									if (!fDiffViewer.getControl().isDisposed() && node.isDeferred()) {
+										node.expand();
+										fDiffViewer.refresh(node);
+									}
+								}
+							});
+						}
+					}
+					monitor.worked(1);
+				}
+				// folders inside deferred folders are compared fully, so there is
+				// nothing left to do once all of them are computed
+				return Status.OK_STATUS;
+			}
+		};
+		fExpandJob.setSystem(true);
+		fExpandJob.schedule();
+	}
+
 	public void saveChanges(final IProgressMonitor pm) throws CoreException {
 		super.saveChanges(pm);
 		if (fRoot instanceof DiffNode) {
 			try {
-				commit(pm, (DiffNode) fRoot);
+				commitNode(pm, (DiffNode) fRoot);
 			} finally {
 				if (fDiffViewer != null) {
 					fDiffViewer.refresh();
@@ -378,6 +984,36 @@ public class ResourceToFileCompareInput extends CompareEditorInput {
 		}
 	}
 
+	/**
+	 * Sets the filter deciding which workspace resources are compared. Must be
+	 * called before <code>setSelection</code>.
+	 */
+	public void setFilter(final CompareFilter filter) {
+		fFilter = filter.restrict(fFilter.getScope());
+	}
+
+	/**
+	 * Restricts the compare to the given projects or folders. Only the
+	 * resources inside the scope are refreshed, enumerated and watched for
+	 * changes. Must be called before <code>setSelection</code>.
+	 * 
+	 * @param scope
+	 *            workspace paths starting with a project name, or
+	 *            <code>null</code> to compare the whole workspace
+	 */
+	public void setScope(final IPath[] scope) {
+		fFilter = fFilter.restrict(scope);
+	}
+
+	/**
+	 * Enables or disables the lazy mode. In lazy mode only the projects and
+	 * their top-level folders are compared when the editor opens; deeper
+	 * folders are compared in the background or when they are expanded.
+	 */
+	public void setLazy(final boolean lazy) {
+		fLazy = lazy;
+	}
+
 	public void setSelection(final IResource project, final IStructureComparator file) {
 
 		// IResource[] selection= Utilities.getResources(s);
@@ -0,0 +1,125 @@
+package org.eclipsercp.book.tools.compare;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.eclipse.compare.CompareConfiguration;
+import org.eclipse.compare.CompareEditorInput;
+import org.eclipse.compare.internal.BinaryCompareViewer;
+import org.eclipse.compare.internal.CompareEditor;
+import org.eclipse.compare.structuremergeviewer.ICompareInput;
+import org.eclipse.compare.structuremergeviewer.IStructureComparator;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.widgets.Composite;
+
+import org.eclipsercp.book.tools.ChangeManifest;
+import org.eclipsercp.book.tools.PhaseEvent;
+import org.eclipsercp.book.tools.Sample;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFolder;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleResource;
+
+/**
+ * A read-only two-way compare of two samples. Both sides come straight from
+ * the sample structures so no workspace resources are refreshed or read.
+ */
+public class SampleCompareInput extends CompareEditorInput {
+
+	private final Sample fLeftSample;
+	private final Sample fRightSample;
+	private final IStructureComparator fLeft;
+	private final IStructureComparator fRight;
+	private ChangeManifest fChanges;
+
+	/*
+	 * Creates a compare editor input for the given samples and their structures.
+	 */
+	public SampleCompareInput(final Sample leftSample, final IStructureComparator left, final Sample rightSample, final IStructureComparator right, final CompareConfiguration config) {
+		super(config);
+		fLeftSample = leftSample;
+		fRightSample = rightSample;
+		fLeft = left;
+		fRight = right;
+		initializeCompareConfiguration();
+	}
+
+	/*
+	 * Binary files never go to a text viewer.
+	 */
+	public Viewer findContentViewer(final Viewer oldViewer, final ICompareInput input, final Composite parent) {
+		if (ContentClassifier.isBinaryInput(input)) {
+			if (oldViewer instanceof BinaryCompareViewer) {
+				return oldViewer;
+			}
+			return new BinaryCompareViewer(parent, getCompareConfiguration());
+		}
+		return super.findContentViewer(oldViewer, input, parent);
+	}
+
+	public String getTitle() {
+		return "Sample " + fLeftSample.getNumber() + " - Sample " + fRightSample.getNumber();
+	}
+
+	/**
+	 * Initializes the labels in the compare configuration.
+	 */
+	void initializeCompareConfiguration() {
+		final CompareConfiguration cc = getCompareConfiguration();
+		cc.setProperty(CompareConfiguration.IGNORE_WHITESPACE, Boolean.TRUE);
+		cc.setProperty(CompareEditor.CONFIRM_SAVE_PROPERTY, Boolean.FALSE);
+		cc.setLeftEditable(false);
+		cc.setLeftLabel("Sample " + fLeftSample.getNumber());
+		cc.setRightEditable(false);
+		cc.setRightLabel("Sample " + fRightSample.getNumber());
+	}
+
+	/**
+	 * Sets the precomputed changes between the two samples. When set and
+	 * whitespace is ignored, as the manifest does, only the files listed in the
+	 * manifest are reported as changed and no file contents are compared.
+	 */
+	public void setChanges(final ChangeManifest changes) {
+		fChanges = changes;
+	}
+
+	/*
+	 * Performs a two-way diff of the two sample structures.
+	 */
+	public Object prepareInput(final IProgressMonitor pm) throws InvocationTargetException {
+		final PhaseEvent event = PhaseEvent.begin(PhaseEvent.PREPARE_INPUT);
+		event.setSample(fRightSample.getNumber());
+		event.setDetail("Sample " + fLeftSample.getNumber());
+		try {
+			pm.beginTask("Comparing samples", IProgressMonitor.UNKNOWN);
+			setTitle(getTitle());
+			final boolean ignoreWhitespace = Boolean.TRUE.equals(getCompareConfiguration().getProperty(CompareConfiguration.IGNORE_WHITESPACE));
+			// the manifest does not record whitespace changes
+			final ChangeManifest changes = ignoreWhitespace ? fChanges : null;
+			final Differencer d = new Differencer() {
+				protected boolean contentsEqual(final Object input1, final Object input2) {
+					if ((changes != null) && (input1 instanceof SampleResource)) {
+						// the precomputed manifest already knows which files changed
+						return !changes.isChanged(((SampleResource) input1).getPath().toString());
+					}
+					return super.contentsEqual(input1, input2);
+				}
+
+				protected boolean structuresEqual(final Object left, final Object right) {
+					if ((changes != null) && (left instanceof SampleFolder)) {
+						return !changes.isChangedBelow(((SampleFolder) left).getPath().toString());
+					}
+					return super.structuresEqual(left, right);
+				}
+			};
+			d.setIgnoreWhitespace(ignoreWhitespace);
+			final PhaseEvent compareEvent = PhaseEvent.begin(PhaseEvent.COMPARE);
+			try {
+				return d.findDifferences(false, pm, null, null, fLeft, fRight);
+			} finally {
+				compareEvent.end();
+			}
+		} finally {
+			event.end();
+			pm.done();
+		}
+	}
+}
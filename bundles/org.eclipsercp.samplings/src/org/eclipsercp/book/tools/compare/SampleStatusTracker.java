@@ -0,0 +1,330 @@
+package org.eclipsercp.book.tools.compare;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipsercp.book.tools.BundleLocation;
+import org.eclipsercp.book.tools.IConstants;
+import org.eclipsercp.book.tools.Metrics;
+import org.eclipsercp.book.tools.Metrics.Counter;
+import org.eclipsercp.book.tools.Sample;
+import org.eclipsercp.book.tools.Sample.ProjectImport;
+import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.Utils;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFile;
+import org.eclipsercp.book.tools.compare.SampleStructureCreator.SampleFolder;
+
+/**
+ * Keeps track of whether each sample is imported into the workspace and, if
+ * so, whether its projects were modified. The status is computed in a
+ * background job and read by the samples view without ever blocking.
+ * <p>
+ * Workspace file digests are cached by modification stamp and per-project
+ * results are kept until a resource delta touches the project, so after the
+ * first run only the changed projects are looked at again.
+ * </p>
+ */
+public class SampleStatusTracker implements IResourceChangeListener {
+
+	/**
+	 * Notified in the background when the status of some samples changed.
+	 */
+	public interface IStatusListener {
+		void statusChanged(Sample[] samples);
+	}
+
+	public static final int UNKNOWN = 0;
+	public static final int NOT_IMPORTED = 1;
+	public static final int IMPORTED_CLEAN = 2;
+	public static final int IMPORTED_MODIFIED = 3;
+
+	/**
+	 * How long resource changes are collected before the status is updated.
+	 */
+	private static final long UPDATE_DELAY = 500;
+
+	private static final Counter fDigestHits = Metrics.getCacheHits("workspaceDigest");
+	private static final Counter fDigestMisses = Metrics.getCacheMisses("workspaceDigest");
+
+	/*
+	 * The digest of a workspace file and the modification stamp it was
+	 * computed for.
+	 */
+	private static class CachedDigest {
+		final long stamp;
+		final byte[] digest;
+
+		CachedDigest(final long stamp, final byte[] digest) {
+			this.stamp = stamp;
+			this.digest = digest;
+		}
+	}
+
+	private final SamplesModel fModel;
+	private final IStatusListener fListener;
+	private final Map fStatus = new HashMap();
+	private final Map fModifiedProjects = new HashMap();
+	private final Map fDigests = new HashMap();
+	private int fInvalidations;
+	private final Job fJob;
+
+	public SampleStatusTracker(final SamplesModel model, final IStatusListener listener) {
+		fModel = model;
+		fListener = listener;
+		fJob = new Job("Updating sample status") {
+			protected IStatus run(final IProgressMonitor monitor) {
+				return update(monitor);
+			}
+		};
+		fJob.setSystem(true);
+		fJob.setPriority(Job.DECORATE);
+	}
+
+	public void dispose() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		fJob.cancel();
+	}
+
+	/**
+	 * Returns the last computed status of the given sample, or
+	 * <code>UNKNOWN</code> if it has not been computed yet. Never blocks.
+	 */
+	public int getStatus(final Sample sample) {
+		synchronized (fStatus) {
+			final Integer status = (Integer) fStatus.get(sample);
+			return status == null ? UNKNOWN : status.intValue();
+		}
+	}
+
+	/*
+	 * Returns the digest of the given workspace file, reading it only if it
+	 * changed since the last time.
+	 */
+	private byte[] getDigest(final IFile file) {
+		final long stamp = file.getModificationStamp();
+		final IPath path = file.getFullPath();
+		final CachedDigest cached = (CachedDigest) fDigests.get(path);
+		if ((cached != null) && (cached.stamp == stamp)) {
+			fDigestHits.increment();
+			return cached.digest;
+		}
+		fDigestMisses.increment();
+		try {
+			final byte[] digest = Utils.digest(file.getContents());
+			fDigests.put(path, new CachedDigest(stamp, digest));
+			return digest;
+		} catch (final CoreException e) {
+			return null;
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Returns whether the contents of the given container differ from the given
+	 * sample folder. Stops at the first difference.
+	 */
+	private boolean isModified(final IContainer container, final SampleFolder folder, final CompareFilter filter) throws CoreException {
+		final Object[] children = folder.getChildren();
+		final Map expected = new HashMap(children.length * 4 / 3 + 1);
+		for (int i = 0; i < children.length; i++) {
+			expected.put(((SampleStructureCreator.SampleResource) children[i]).getName(), children[i]);
+		}
+		final IResource[] members = container.members();
+		int matched = 0;
+		for (int i = 0; i < members.length; i++) {
+			final IResource member = members[i];
+			if (EclipseResourceNode.isFiltered(member, filter)) {
+				continue;
+			}
+			final Object child = expected.get(member.getName());
+			if (child == null) {
+				return true;
+			}
+			matched++;
+			if (member.getType() == IResource.FILE) {
+				if (!(child instanceof SampleFile)) {
+					return true;
+				}
+				final byte[] digest = getDigest((IFile) member);
+				if ((digest == null) || !Arrays.equals(digest, ((SampleFile) child).getDigest())) {
+					return true;
+				}
+			} else if (!(child instanceof SampleFolder) || isModified((IContainer) member, (SampleFolder) child, filter)) {
+				return true;
+			}
+		}
+		return matched != expected.size();
+	}
+
+	public void resourceChanged(final IResourceChangeEvent event) {
+		final IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		final IResourceDelta[] projects = delta.getAffectedChildren();
+		if (projects.length == 0) {
+			return;
+		}
+		synchronized (fModifiedProjects) {
+			for (int i = 0; i < projects.length; i++) {
+				fModifiedProjects.remove(projects[i].getResource().getName());
+			}
+			fInvalidations++;
+		}
+		fJob.schedule(UPDATE_DELAY);
+	}
+
+	/**
+	 * Starts tracking: computes the status of all samples in the background
+	 * and updates it on every resource change.
+	 */
+	public void start() {
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+		fJob.schedule();
+	}
+
+	/*
+	 * Computes the status of every sample. Projects whose result is still known
+	 * are not looked at again.
+	 */
+	private IStatus update(final IProgressMonitor monitor) {
+		final Sample[] samples = fModel.getSamples();
+		if (samples == null) {
+			return Status.OK_STATUS;
+		}
+		// sample number -> names of the projects imported for it
+		final Map imported = new HashMap();
+		final IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
+		for (int i = 0; i < projects.length; i++) {
+			if (!projects[i].isAccessible()) {
+				continue;
+			}
+			try {
+				final String number = projects[i].getPersistentProperty(IConstants.SAMPLE_NUMBER_KEY);
+				if (number != null) {
+					final Float key = Float.valueOf(number);
+					Set names = (Set) imported.get(key);
+					if (names == null) {
+						names = new HashSet();
+						imported.put(key, names);
+					}
+					names.add(projects[i].getName());
+				}
+			} catch (final CoreException e) {
+				// treat as not imported
+			} catch (final NumberFormatException e) {
+				// not a sample project
+			}
+		}
+		final List changed = new ArrayList();
+		final SampleStructureCreator creator = new SampleStructureCreator(fModel);
+		for (int i = 0; i < samples.length; i++) {
+			if (monitor.isCanceled()) {
+				break;
+			}
+			final Sample sample = samples[i];
+			final Set names = (Set) imported.get(sample.getNumber());
+			int status = NOT_IMPORTED;
+			if (names != null) {
+				status = isModified(sample, names, creator) ? IMPORTED_MODIFIED : IMPORTED_CLEAN;
+			}
+			synchronized (fStatus) {
+				final Integer old = (Integer) fStatus.put(sample, new Integer(status));
+				if ((old == null) || (old.intValue() != status)) {
+					changed.add(sample);
+				}
+			}
+		}
+		if (!changed.isEmpty()) {
+			fListener.statusChanged((Sample[]) changed.toArray(new Sample[changed.size()]));
+		}
+		return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	/*
+	 * Returns whether any project of the given imported sample differs from the
+	 * sample, using the per-project results that are still valid. Only the
+	 * projects of the sample itself are imported with its number and compared;
+	 * the projects it imports from other samples only need to exist, and
+	 * anything else in the sample, such as snippets, is never imported.
+	 */
+	private boolean isModified(final Sample sample, final Set importedNames, final SampleStructureCreator creator) {
+		final SampleFolder root = (SampleFolder) creator.getStructure(sample);
+		final CompareFilter filter = CompareFilter.getFilter(sample.getLocation().source);
+		final Object[] children = root.getChildren();
+		final Map folders = new HashMap(children.length * 4 / 3 + 1);
+		for (int i = 0; i < children.length; i++) {
+			if (children[i] instanceof SampleFolder) {
+				folders.put(((SampleFolder) children[i]).getName(), children[i]);
+			}
+		}
+		for (final Iterator i = sample.getProjects().iterator(); i.hasNext();) {
+			final String name = ((BundleLocation) i.next()).location.lastSegment();
+			if (!importedNames.contains(name)) {
+				// a project of the sample is missing from the workspace
+				return true;
+			}
+			final SampleFolder folder = (SampleFolder) folders.get(name);
+			if ((folder != null) && isModified(name, folder, filter)) {
+				return true;
+			}
+		}
+		final ProjectImport[] imports = sample.getImports();
+		for (int i = 0; i < imports.length; i++) {
+			if (!ResourcesPlugin.getWorkspace().getRoot().getProject(imports[i].getProjectName()).exists()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Returns whether the workspace project with the given name differs from
+	 * the given sample folder, reusing the last result if it is still valid.
+	 */
+	private boolean isModified(final String name, final SampleFolder folder, final CompareFilter filter) {
+		Boolean modified;
+		final int invalidations;
+		synchronized (fModifiedProjects) {
+			modified = (Boolean) fModifiedProjects.get(name);
+			invalidations = fInvalidations;
+		}
+		if (modified == null) {
+			try {
+				modified = Boolean.valueOf(isModified(ResourcesPlugin.getWorkspace().getRoot().getProject(name), folder, filter));
+			} catch (final CoreException e) {
+				modified = Boolean.TRUE;
+			}
+			synchronized (fModifiedProjects) {
+				// a result computed while resources changed may be stale already
+				if (invalidations == fInvalidations) {
+					fModifiedProjects.put(name, modified);
+				}
+			}
+		}
+		return modified.booleanValue();
+	}
+}
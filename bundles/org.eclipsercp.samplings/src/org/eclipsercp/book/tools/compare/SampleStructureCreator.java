@@ -10,18 +10,24 @@
  *******************************************************************************/
 package org.eclipsercp.book.tools.compare;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.util.Enumeration;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.eclipse.compare.CompareUI;
 import org.eclipse.compare.IStreamContentAccessor;
 import org.eclipse.compare.ITypedElement;
-import org.eclipse.compare.internal.CompareUIPlugin;
 import org.eclipse.compare.structuremergeviewer.Differencer;
 import org.eclipse.compare.structuremergeviewer.IDiffContainer;
 import org.eclipse.compare.structuremergeviewer.IStructureComparator;
@@ -34,9 +40,16 @@ import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.swt.graphics.Image;
 
+import org.eclipsercp.book.tools.BundleLocation;
+import org.eclipsercp.book.tools.IConstants;
+import org.eclipsercp.book.tools.Metrics;
+import org.eclipsercp.book.tools.Metrics.Counter;
 import org.eclipsercp.book.tools.Sample;
 import org.eclipsercp.book.tools.Sample.ProjectImport;
+import org.eclipsercp.book.tools.SampleSource;
 import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.Trace;
+import org.eclipsercp.book.tools.Utils;
 
 /**
  * This implementation of the <code>IStructureCreator</code> interface makes the
@@ -48,44 +61,37 @@ import org.eclipsercp.book.tools.SamplesModel;
 public class SampleStructureCreator implements IStructureCreator {
 
 	static class SampleFile extends SampleResource implements IStreamContentAccessor {
+
+		/**
+		 * Files up to this size keep their content in memory once read so that
+		 * repeated compares and structure merges do not go back to the sample source.
+		 */
+		static final int MAX_CACHED_CONTENT = 512 * 1024;
+
+		private static final Counter fContentHits = Metrics.getCacheHits("content");
+		private static final Counter fContentMisses = Metrics.getCacheMisses("content");
+
+		private SoftReference cachedContent;
+		private byte[] digest;
+		private byte[] normalizedDigest;
+		private int length = -1;
+		private int contentKind = ContentClassifier.UNKNOWN;
+
 		SampleFile(final Sample sample, final IPath path) {
 			super(sample, path);
 		}
 
-		byte[] appendBytes(final byte[] result, final byte[] buffer, final int length) {
-			if (length <= 0) {
-				return result;
-			}
-			int oldLen = 0;
-			if (result != null) {
-				oldLen = result.length;
-			}
-			final byte[] newBuf = new byte[oldLen + length];
-			if (oldLen > 0) {
-				System.arraycopy(result, 0, newBuf, 0, oldLen);
-			}
-			System.arraycopy(buffer, 0, newBuf, oldLen, length);
-			return newBuf;
-		}
-
 		public byte[] getBytes() {
-			final byte[] result = new byte[0];
-			InputStream is = null;
 			try {
-				try {
-					is = getContents();
-					int n;
-					final byte[] buffer = new byte[0];
-					do {
-						n = is.read(buffer, 0, 4096);
-						appendBytes(result, buffer, n);
-					} while (n >= 0);
-				} finally {
-					is.close();
-				}
+				return readContent();
 			} catch (final Exception e) {
+				return null;
 			}
-			return result;
+		}
+
+		private byte[] getCachedContent() {
+			final SoftReference ref = cachedContent;
+			return ref == null ? null : (byte[]) ref.get();
 		}
 
 		public Object[] getChildren() {
@@ -93,16 +99,138 @@ public class SampleStructureCreator implements IStructureCreator {
 		}
 
 		public InputStream getContents() throws CoreException {
-			final IPath location = sample.getLocation().location;
-			final URL entry = sample.getLocation().bundle.getEntry(location.append(path).toString());
-			if (entry == null) {
-				new ByteArrayInputStream(new byte[0]);
+			final byte[] cached = getCachedContent();
+			if (cached != null) {
+				fContentHits.increment();
+				return new ByteArrayInputStream(cached);
+			}
+			fContentMisses.increment();
+			final SampleSource source = getSource();
+			final String entry = getEntry();
+			if (!source.exists(entry)) {
+				return new ByteArrayInputStream(new byte[0]);
 			}
 			try {
-				return entry.openStream();
+				return new BufferedInputStream(source.open(entry));
 			} catch (final IOException e) {
-				throw new CoreException(new Status(IStatus.ERROR, "org.eclipsercp.samplings", "Error getting entry", e));
+				throw new CoreException(new Status(IStatus.ERROR, IConstants.PLUGIN_ID, "Error getting entry", e));
+			}
+		}
+
+		/**
+		 * Returns a digest of the file content. The digest is computed once and
+		 * kept for the lifetime of this (shared) node, so comparing unchanged
+		 * files between samples only costs the first read.
+		 */
+		public synchronized byte[] getDigest() {
+			if (digest == null) {
+				final byte[] bytes = getBytes();
+				if (bytes == null) {
+					return null;
+				}
+				try {
+					digest = MessageDigest.getInstance("MD5").digest(bytes);
+				} catch (final NoSuchAlgorithmException e) {
+					return null;
+				}
+			}
+			return digest;
+		}
+
+		/**
+		 * Returns a digest of the whitespace normalized file content, computed
+		 * once like the plain digest.
+		 * 
+		 * @see Utils#normalizedDigest(InputStream)
+		 */
+		public synchronized byte[] getNormalizedDigest() {
+			if (normalizedDigest == null) {
+				final byte[] bytes = getBytes();
+				if (bytes == null) {
+					return null;
+				}
+				try {
+					normalizedDigest = Utils.normalizedDigest(new ByteArrayInputStream(bytes));
+				} catch (final IOException e) {
+					return null;
+				}
+			}
+			return normalizedDigest;
+		}
+
+		private String getEntry() {
+			return sample.getLocation().location.append(path).toString();
+		}
+
+		private SampleSource getSource() {
+			return sample.getLocation().source;
+		}
+
+		/**
+		 * Returns the exact length of the file content in bytes, or
+		 * <code>-1</code> if the content cannot be read.
+		 */
+		public int getLength() {
+			if (length < 0) {
+				final byte[] cached = getCachedContent();
+				if (cached != null) {
+					length = cached.length;
+				} else {
+					final SampleSource source = getSource();
+					final String entry = getEntry();
+					final long size = source.getSize(entry);
+					if (size >= 0) {
+						length = (int) size;
+					} else if (!source.exists(entry)) {
+						length = 0;
+					} else {
+						// length not known, have to read it
+						final byte[] bytes = getBytes();
+						return bytes == null ? -1 : bytes.length;
+					}
+				}
+			}
+			return length;
+		}
+
+		/**
+		 * Returns whether the file has binary content. Only files whose
+		 * extension is not known are sniffed, and only once.
+		 */
+		public boolean isBinary() {
+			if (contentKind == ContentClassifier.UNKNOWN) {
+				InputStream in = null;
+				if (ContentClassifier.classifyName(getName()) == ContentClassifier.UNKNOWN) {
+					try {
+						in = getContents();
+					} catch (final CoreException e) {
+						// classified as text
+					}
+				}
+				contentKind = ContentClassifier.classify(getName(), in);
 			}
+			return contentKind == ContentClassifier.BINARY;
+		}
+
+		private synchronized byte[] readContent() throws IOException {
+			final byte[] cached = getCachedContent();
+			if (cached != null) {
+				fContentHits.increment();
+				return cached;
+			}
+			fContentMisses.increment();
+			final SampleSource source = getSource();
+			final String entry = getEntry();
+			if (!source.exists(entry)) {
+				length = 0;
+				return new byte[0];
+			}
+			final byte[] result = source.read(entry);
+			length = result.length;
+			if (result.length <= MAX_CACHED_CONTENT) {
+				cachedContent = new SoftReference(result);
+			}
+			return result;
 		}
 
 		public String getType() {
@@ -117,14 +245,17 @@ public class SampleStructureCreator implements IStructureCreator {
 
 	static class SampleFolder extends SampleResource {
 
-		private final HashMap children = new HashMap(10);
+		private HashMap children = new HashMap(10);
+		private Object[] frozenChildren;
+		private byte[] digest;
+		private boolean mixed;
 
 		SampleFolder(final Sample sample, final IPath path) {
 			super(sample, path);
 		}
 
 		public SampleResource addChild(final Sample sample, final IPath childPath) {
-			final SampleFolder parent = md(childPath.removeLastSegments(1).makeRelative());
+			final SampleFolder parent = md(sample, childPath.removeLastSegments(1).makeRelative());
 			if (childPath.hasTrailingSeparator()) {
 				return parent.addFolder(sample, childPath.lastSegment());
 			} else {
@@ -133,18 +264,42 @@ public class SampleStructureCreator implements IStructureCreator {
 		}
 
 		private SampleFile addFile(final Sample sample, final String name) {
+			mixed |= sample != this.sample;
 			final SampleFile result = new SampleFile(sample, path.append(name));
 			children.put(name, result);
 			return result;
 		}
 
 		private SampleFolder addFolder(final Sample sample, final String name) {
+			mixed |= sample != this.sample;
 			final SampleFolder result = new SampleFolder(sample, path.append(name));
 			children.put(name, result);
 			return result;
 		}
 
+		/*
+		 * Replaces the children map with a fixed array once the tree is fully built.
+		 * A frozen tree is never modified again and can be shared by any number
+		 * of compares.
+		 */
+		void freeze() {
+			if (frozenChildren != null) {
+				return;
+			}
+			final Object[] result = getChildren();
+			for (int i = 0; i < result.length; i++) {
+				if (result[i] instanceof SampleFolder) {
+					((SampleFolder) result[i]).freeze();
+				}
+			}
+			frozenChildren = result;
+			children = null;
+		}
+
 		public Object[] getChildren() {
+			if (frozenChildren != null) {
+				return frozenChildren.clone();
+			}
 			final Object[] result = new Object[children.size()];
 			final Iterator iter = children.values().iterator();
 			for (int i = 0; iter.hasNext(); i++) {
@@ -157,7 +312,48 @@ public class SampleStructureCreator implements IStructureCreator {
 			return ITypedElement.FOLDER_TYPE;
 		}
 
-		private SampleFolder md(final IPath parentPath) {
+		/**
+		 * Returns a digest over the names, kinds and content digests of all
+		 * children of this folder. Only available once the tree is frozen.
+		 */
+		public synchronized byte[] getDigest() {
+			if ((digest == null) && (frozenChildren != null)) {
+				final Object[] sorted = getChildren();
+				Arrays.sort(sorted, new Comparator() {
+					public int compare(final Object o1, final Object o2) {
+						return ((SampleResource) o1).getName().compareTo(((SampleResource) o2).getName());
+					}
+				});
+				try {
+					final MessageDigest md = MessageDigest.getInstance("MD5");
+					for (int i = 0; i < sorted.length; i++) {
+						final byte[] childDigest = sorted[i] instanceof SampleFolder ? ((SampleFolder) sorted[i]).getDigest() : ((SampleFile) sorted[i]).getDigest();
+						if (childDigest == null) {
+							return null;
+						}
+						md.update(((SampleResource) sorted[i]).getName().getBytes("UTF-8"));
+						md.update((byte) (sorted[i] instanceof SampleFolder ? 1 : 0));
+						md.update(childDigest);
+					}
+					digest = md.digest();
+				} catch (final NoSuchAlgorithmException e) {
+					return null;
+				} catch (final UnsupportedEncodingException e) {
+					return null;
+				}
+			}
+			return digest;
+		}
+
+		/*
+		 * A folder containing entries from more than one sample is not backed by a
+		 * single sample entry.
+		 */
+		boolean isSameEntry(final SampleResource other) {
+			return !mixed && !((SampleFolder) other).mixed && super.isSameEntry(other);
+		}
+
+		private SampleFolder md(final Sample sample, final IPath parentPath) {
 			SampleFolder result = this;
 			final String[] segments = parentPath.segments();
 			for (int i = 0; i < segments.length; i++) {
@@ -210,6 +406,66 @@ public class SampleStructureCreator implements IStructureCreator {
 		public int hashCode() {
 			return getName().hashCode();
 		}
+
+		/**
+		 * Returns whether the given element is backed by the same sample entry
+		 * as this one, for example a project imported into several samples.
+		 */
+		boolean isSameEntry(final SampleResource other) {
+			if (getClass() != other.getClass()) {
+				return false;
+			}
+			final BundleLocation location = sample.getLocation();
+			final BundleLocation otherLocation = other.sample.getLocation();
+			// sources are compared as objects, their ids may be costly to compute
+			return location.source.equals(otherLocation.source) && location.location.append(path).equals(otherLocation.location.append(other.path));
+		}
+	}
+
+	/**
+	 * The maximum number of sample structures kept in the shared cache.
+	 */
+	private static final int MAX_CACHED_STRUCTURES = 16;
+
+	private static final Counter fStructureHits = Metrics.getCacheHits("structure");
+	private static final Counter fStructureMisses = Metrics.getCacheMisses("structure");
+
+	/*
+	 * Structure trees shared by all compares. Sample content never changes for
+	 * a given source id, so trees are keyed by source id and sample location.
+	 * Values are soft references so trees can be reclaimed under memory
+	 * pressure.
+	 */
+	private static final Map fStructureCache = new LinkedHashMap(MAX_CACHED_STRUCTURES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(final Map.Entry eldest) {
+			return size() > MAX_CACHED_STRUCTURES;
+		}
+	};
+
+	/**
+	 * Discards all cached sample structures.
+	 */
+	public static void clearCache() {
+		synchronized (fStructureCache) {
+			fStructureCache.clear();
+		}
+		if (Trace.DEBUG_CACHE) {
+			Trace.trace(Trace.CACHE, "cache=structure cleared=true");
+		}
+	}
+
+	private static String getCacheKey(final Sample sample, final IPath[] scope) {
+		final BundleLocation location = sample.getLocation();
+		final StringBuffer key = new StringBuffer();
+		key.append(location.source.getId()).append('/').append(location.location);
+		if (scope != null) {
+			for (int i = 0; i < scope.length; i++) {
+				key.append(i == 0 ? '?' : ',').append(scope[i].makeRelative().removeTrailingSeparator());
+			}
+		}
+		return key.toString();
 	}
 
 	private final SamplesModel fSamples;
@@ -241,16 +497,6 @@ public class SampleStructureCreator implements IStructureCreator {
 		return false;
 	}
 
-	private boolean filter(final String entry) {
-		if (entry.indexOf("CVS") >= 0) {
-			return true;
-		}
-		if (entry.indexOf("imports.def") >= 0) {
-			return true;
-		}
-		return CompareUIPlugin.getDefault().filter(entry, entry.endsWith("/"), false);
-	}
-
 	public String getContents(final Object o, final boolean ignoreWhitespace) {
 		if (!(o instanceof SampleFile)) {
 			return null;
@@ -267,47 +513,104 @@ public class SampleStructureCreator implements IStructureCreator {
 		return "Sample Comparison";
 	}
 
+	/**
+	 * Returns the structure of the given sample including its imported
+	 * projects. The returned tree is immutable and shared with other callers;
+	 * it is only built the first time a sample is requested. If the sample
+	 * cannot be read completely, the partial tree is returned to this caller
+	 * only.
+	 */
 	public IStructureComparator getStructure(final Object input) {
-		final Sample sample = (Sample) input;
+		return getStructure((Sample) input, null);
+	}
+
+	/**
+	 * Returns the structure of the given sample restricted to the given scope.
+	 * Only the entries inside the scope are enumerated.
+	 * 
+	 * @param sample
+	 *            the sample
+	 * @param scope
+	 *            paths relative to the sample root starting with a project
+	 *            name, or <code>null</code> for the whole sample
+	 * @see CompareFilter#restrict(IPath[])
+	 */
+	public IStructureComparator getStructure(final Sample sample, final IPath[] scope) {
+		final String key = getCacheKey(sample, scope);
+		synchronized (fStructureCache) {
+			final SoftReference ref = (SoftReference) fStructureCache.get(key);
+			final Object cached = ref == null ? null : ref.get();
+			if (cached != null) {
+				fStructureHits.increment();
+				if (Trace.DEBUG_CACHE) {
+					Trace.trace(Trace.CACHE, "cache=structure hit=true key=" + key);
+				}
+				return (IStructureComparator) cached;
+			}
+		}
+		fStructureMisses.increment();
+		final long start = System.nanoTime();
 		final SampleFolder result = new SampleFolder(sample, new Path("")); //$NON-NLS-1$
 		try {
-			loadImmediateProjects(sample, result);
-			loadImportedProjects(sample, result);
+			loadImmediateProjects(sample, scope, result);
+			loadImportedProjects(sample, scope, result);
 		} catch (final IOException e) {
+			// a partial tree is not frozen or shared, so the next request reads the sample again
 			e.printStackTrace();
+			return result;
+		}
+		result.freeze();
+		synchronized (fStructureCache) {
+			fStructureCache.put(key, new SoftReference(result));
+		}
+		if (Trace.DEBUG_CACHE) {
+			Trace.trace(Trace.CACHE, "cache=structure hit=false key=" + key + " ms=" + Trace.elapsed(start));
 		}
 		return result;
 	}
 
 	public void loadImmediateProjects(final Sample sample, final SampleFolder result) throws IOException {
+		loadImmediateProjects(sample, null, result);
+	}
+
+	private void loadImmediateProjects(final Sample sample, final IPath[] scope, final SampleFolder result) throws IOException {
 		final String base = sample.getLocation().location.toString();
-		loadProjects(sample, base, base, result);
+		loadProjects(sample, base, base, CompareFilter.getFilter(sample.getLocation().source).restrict(scope), result);
 	}
 
-	private void loadImportedProjects(final Sample sample, final SampleFolder result) throws IOException {
+	private void loadImportedProjects(final Sample sample, final IPath[] scope, final SampleFolder result) throws IOException {
 		final ProjectImport[] imports = sample.getImports();
 		for (int i = 0; i < imports.length; i++) {
 			final Float number = imports[i].getSampleNumber();
 			final Sample sourceSample = fSamples.findSampleById(number);
+			if (sourceSample == null) {
+				continue;
+			}
+			final CompareFilter filter = CompareFilter.getFilter(sourceSample.getLocation().source).restrict(scope);
+			if (filter.isFiltered(imports[i].getProjectName(), true)) {
+				continue;
+			}
 			final IPath base = sourceSample.getLocation().location;
 			final String target = base.append(imports[i].getProjectName()).toString();
-			loadProjects(sourceSample, base.toString(), target, result);
+			loadProjects(sourceSample, base.toString(), target, filter, result);
 		}
 	}
 
-	private void loadProjects(final Sample sample, final String base, final String parent, final SampleFolder result) throws IOException {
-		final Enumeration paths = sample.getLocation().bundle.getEntryPaths(parent);
-		if (null == paths) {
-			return;
-		}
-
-		while (paths.hasMoreElements()) {
-			final String entry = (String) paths.nextElement();
-			if (!filter(entry)) {
+	private void loadProjects(final Sample sample, final String base, final String parent, final CompareFilter filter, final SampleFolder result) throws IOException {
+		final String[] paths = sample.getLocation().source.listTree(parent);
+		// the entries below a filtered folder follow it
+		String filtered = null;
+		for (int i = 0; i < paths.length; i++) {
+			final String entry = paths[i];
+			if ((filtered != null) && entry.startsWith(filtered)) {
+				continue;
+			}
+			final boolean directory = entry.endsWith("/");
+			final String relative = entry.substring(base.length() + (entry.startsWith("/", base.length()) ? 1 : 0), entry.length() - (directory ? 1 : 0));
+			if (filter.isFiltered(relative, directory)) {
+				filtered = directory ? entry : filtered;
+			} else {
 				result.addChild(sample, new Path(entry.substring(base.length(), entry.length())));
-				if (entry.endsWith("/")) {
-					loadProjects(sample, base, entry, result);
-				}
 			}
 		}
 	}
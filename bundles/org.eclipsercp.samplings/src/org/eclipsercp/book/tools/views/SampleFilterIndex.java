@@ -0,0 +1,169 @@
+package org.eclipsercp.book.tools.views;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipsercp.book.tools.Sample;
+
+/**
+ * An n-gram index over the names and numbers of a sorted array of samples.
+ * Every substring of up to three characters of a sample's text maps to the
+ * ascending positions of the samples containing it, so a filter query only
+ * intersects a few short lists instead of scanning every sample. Results keep
+ * the order of the indexed array.
+ */
+public class SampleFilterIndex {
+
+	/*
+	 * A growing list of sample positions, added in ascending order.
+	 */
+	private static class Postings {
+		int[] positions = new int[4];
+		int size;
+
+		void add(final int position) {
+			if ((size > 0) && (positions[size - 1] == position)) {
+				return;
+			}
+			if (size == positions.length) {
+				final int[] grown = new int[size * 2];
+				System.arraycopy(positions, 0, grown, 0, size);
+				positions = grown;
+			}
+			positions[size++] = position;
+		}
+
+		int[] toArray() {
+			final int[] result = new int[size];
+			System.arraycopy(positions, 0, result, 0, size);
+			return result;
+		}
+	}
+
+	/**
+	 * The longest substrings kept in the index.
+	 */
+	private static final int MAX_GRAM = 3;
+
+	private static final Comparator LENGTH_ORDER = new Comparator() {
+		public int compare(final Object o1, final Object o2) {
+			return ((int[]) o1).length - ((int[]) o2).length;
+		}
+	};
+
+	/**
+	 * Sorts the given samples by number, comparing the primitive values.
+	 */
+	public static void sort(final Sample[] samples) {
+		Arrays.sort(samples, new Comparator() {
+			public int compare(final Object o1, final Object o2) {
+				return Float.compare(((Sample) o1).getNumber().floatValue(), ((Sample) o2).getNumber().floatValue());
+			}
+		});
+	}
+
+	/**
+	 * Returns the text of the given sample that filter queries are matched
+	 * against: its name and its number, in lower case.
+	 */
+	static String getFilterText(final Sample sample) {
+		return (sample.getLocation().location.lastSegment() + ' ' + sample.getNumber()).toLowerCase();
+	}
+
+	private final Sample[] fSamples;
+	private final String[] fTexts;
+	private final Map fGrams;
+
+	/**
+	 * Creates the index for the given samples, which are expected to be in
+	 * display order already.
+	 */
+	public SampleFilterIndex(final Sample[] samples) {
+		fSamples = samples;
+		fTexts = new String[samples.length];
+		final Map grams = new HashMap();
+		for (int i = 0; i < samples.length; i++) {
+			final String text = getFilterText(samples[i]);
+			fTexts[i] = text;
+			for (int start = 0; start < text.length(); start++) {
+				for (int end = start + 1; (end <= start + MAX_GRAM) && (end <= text.length()); end++) {
+					final String gram = text.substring(start, end);
+					Postings postings = (Postings) grams.get(gram);
+					if (postings == null) {
+						postings = new Postings();
+						grams.put(gram, postings);
+					}
+					postings.add(i);
+				}
+			}
+		}
+		fGrams = new HashMap(grams.size() * 4 / 3 + 1);
+		for (final Iterator i = grams.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry entry = (Map.Entry) i.next();
+			fGrams.put(entry.getKey(), ((Postings) entry.getValue()).toArray());
+		}
+	}
+
+	/**
+	 * Returns the samples whose name or number contains the given text,
+	 * ignoring case, in the order of the indexed array. An empty query returns
+	 * all samples.
+	 */
+	public Sample[] find(final String query) {
+		final String text = query.trim().toLowerCase();
+		if (text.length() == 0) {
+			return fSamples;
+		}
+		final int n = Math.min(MAX_GRAM, text.length());
+		final int[][] lists = new int[text.length() - n + 1][];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = (int[]) fGrams.get(text.substring(i, i + n));
+			if (lists[i] == null) {
+				return new Sample[0];
+			}
+		}
+		// intersect starting with the shortest list
+		Arrays.sort(lists, LENGTH_ORDER);
+		final int[] candidates = (int[]) lists[0].clone();
+		int count = candidates.length;
+		for (int i = 1; (i < lists.length) && (count > 0); i++) {
+			count = intersect(candidates, count, lists[i]);
+		}
+		final Sample[] result = new Sample[count];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			// the grams are all there, the query itself may still not be
+			if ((text.length() <= MAX_GRAM) || (fTexts[candidates[i]].indexOf(text) >= 0)) {
+				result[size++] = fSamples[candidates[i]];
+			}
+		}
+		if (size == result.length) {
+			return result;
+		}
+		final Sample[] trimmed = new Sample[size];
+		System.arraycopy(result, 0, trimmed, 0, size);
+		return trimmed;
+	}
+
+	/*
+	 * Keeps the positions of the first count candidates that are also in the
+	 * given list, moving them to the start of candidates. Returns
+	 * the number of positions kept.
+	 */
+	private static int intersect(final int[] candidates, final int count, final int[] list) {
+		int size = 0;
+		int j = 0;
+		for (int i = 0; (i < count) && (j < list.length); i++) {
+			while ((j < list.length) && (list[j] < candidates[i])) {
+				j++;
+			}
+			if ((j < list.length) && (list[j] == candidates[i])) {
+				candidates[size++] = candidates[i];
+			}
+		}
+		return size;
+	}
+}
@@ -10,12 +10,14 @@ import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 
+import org.eclipsercp.book.tools.ChangeManifest;
 import org.eclipsercp.book.tools.IConstants;
 import org.eclipsercp.book.tools.Sample;
-import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.compare.SampleStatusTracker;
 
 public class SamplesLabelProvider extends LabelProvider implements IFontProvider {
 	private Image image;
+	private SampleStatusTracker tracker;
 
 	public void dispose() {
 		// properly dispose the image
@@ -25,14 +27,22 @@ public class SamplesLabelProvider extends LabelProvider implements IFontProvider
 		super.dispose();
 	}
 
+	/*
+	 * Imported samples are shown in bold. The status is computed in the
+	 * background, so painting never looks at the workspace.
+	 */
 	public Font getFont(final Object element) {
-		final Sample sample = (Sample) element;
-		if (SamplesModel.getCurrentSampleNumber().equals(sample.getNumber())) {
+		final int status = getStatus((Sample) element);
+		if ((status == SampleStatusTracker.IMPORTED_CLEAN) || (status == SampleStatusTracker.IMPORTED_MODIFIED)) {
 			return JFaceResources.getFontRegistry().getBold(JFaceResources.DEFAULT_FONT);
 		}
 		return null;
 	}
 
+	public void setStatusTracker(final SampleStatusTracker tracker) {
+		this.tracker = tracker;
+	}
+
 	public Image getImage(final Object element) {
 		if (image == null) {
 			image = AbstractUIPlugin.imageDescriptorFromPlugin(IConstants.PLUGIN_ID, "icons/bkmrk_nav.gif").createImage(true);
@@ -40,7 +50,23 @@ public class SamplesLabelProvider extends LabelProvider implements IFontProvider
 		return image;
 	}
 
+	private int getStatus(final Sample sample) {
+		return tracker == null ? SampleStatusTracker.UNKNOWN : tracker.getStatus(sample);
+	}
+
+	/*
+	 * Imported samples whose projects were modified are prefixed with '>'.
+	 */
 	public String getText(final Object element) {
-		return ((Sample) element).getLocation().location.lastSegment();
+		final Sample sample = (Sample) element;
+		String name = sample.getLocation().location.lastSegment();
+		if (getStatus(sample) == SampleStatusTracker.IMPORTED_MODIFIED) {
+			name = "> " + name;
+		}
+		final ChangeManifest changes = sample.getChanges();
+		if (changes != null) {
+			return name + "  [" + changes.getSummary() + "]";
+		}
+		return name;
 	}
 }
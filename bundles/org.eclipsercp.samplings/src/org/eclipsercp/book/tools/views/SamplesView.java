@@ -1,37 +1,63 @@
 package org.eclipsercp.book.tools.views;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.InputDialog;
+import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.DoubleClickEvent;
 import org.eclipse.jface.viewers.IDoubleClickListener;
 import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
-import org.eclipse.jface.viewers.ViewerSorter;
+import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IActionBars;
+import org.eclipse.ui.dialogs.ElementListSelectionDialog;
+import org.eclipse.ui.dialogs.ListSelectionDialog;
 import org.eclipse.ui.part.ViewPart;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 
 import org.eclipsercp.book.tools.BundleLocation;
+import org.eclipsercp.book.tools.FileHistory;
 import org.eclipsercp.book.tools.Sample;
+import org.eclipsercp.book.tools.Sample.ProjectImport;
 import org.eclipsercp.book.tools.SamplesModel;
+import org.eclipsercp.book.tools.SearchIndex;
 import org.eclipsercp.book.tools.Utils;
 import org.eclipsercp.book.tools.actions.CompareSamplesOperation;
 import org.eclipsercp.book.tools.actions.ImportSampleOperation;
+import org.eclipsercp.book.tools.compare.ChangeManifestJob;
+import org.eclipsercp.book.tools.compare.SampleStatusTracker;
 
 public class SamplesView extends ViewPart {
 	/*
@@ -40,15 +66,31 @@ public class SamplesView extends ViewPart {
 	private static final int IMPORT_ID = 101;
 	private static final int COMPARE_ID = 102;
 	private static final int TARGET_ID = 103;
+	private static final int COMPARE_SAMPLES_ID = 104;
+	private static final int COMPARE_PROJECTS_ID = 105;
+	private static final int SEARCH_ID = 106;
+	private static final int HISTORY_ID = 107;
+	private static final int STATISTICS_ID = 108;
 
 	private BundleLocation location;
 	private BundleLocation targetLocation;
 	private TableViewer samplesList;
+	private Text filterText;
+	private SampleFilterIndex filterIndex;
+	private Sample[] visibleSamples = new Sample[0];
+	private SamplesLabelProvider labelProvider;
+	private SampleStatusTracker statusTracker;
 	private SamplesModel samplesModel;
 	private SamplesModel targetModel;
 	private Action importAction;
 	private Action compareAction;
 	private Action targetAction;
+	private Action compareSamplesAction;
+	private Action compareProjectsAction;
+	private Action searchAction;
+	private Action historyAction;
+	private Action statisticsAction;
+	private volatile SearchIndex searchIndex;
 
 	public SamplesView() {
 	}
@@ -65,14 +107,63 @@ public class SamplesView extends ViewPart {
 			case COMPARE_ID:
 				new CompareSamplesOperation(samplesModel).run(getSelection());
 				break;
+			case COMPARE_SAMPLES_ID:
+				final Sample[] selected = getSelectedSamples();
+				if (selected.length == 2) {
+					new CompareSamplesOperation(samplesModel).run(selected[0], selected[1]);
+				}
+				break;
+			case COMPARE_PROJECTS_ID:
+				compareProjects();
+				break;
+			case SEARCH_ID:
+				search();
+				break;
+			case HISTORY_ID:
+				showHistory();
+				break;
+			case STATISTICS_ID:
+				new StatisticsDialog(getShell()).open();
+				break;
 		}
 	}
 
+	/*
+	 * Lets the user pick some projects of the selected sample and compares only
+	 * those with the workspace.
+	 */
+	private void compareProjects() {
+		final Sample sample = getSelection();
+		if (sample == null) {
+			return;
+		}
+		final Set names = new TreeSet();
+		for (final Iterator i = sample.getProjects().iterator(); i.hasNext();) {
+			names.add(((BundleLocation) i.next()).location.lastSegment());
+		}
+		final ProjectImport[] imports = sample.getImports();
+		for (int i = 0; i < imports.length; i++) {
+			names.add(imports[i].getProjectName());
+		}
+		final ListSelectionDialog dialog = new ListSelectionDialog(getShell(), names.toArray(), new ArrayContentProvider(), new LabelProvider(), "Select the projects to compare with the workspace:");
+		dialog.setTitle("Compare Projects");
+		if ((dialog.open() != Window.OK) || (dialog.getResult().length == 0)) {
+			return;
+		}
+		final Object[] result = dialog.getResult();
+		final IPath[] scope = new IPath[result.length];
+		for (int i = 0; i < result.length; i++) {
+			scope[i] = new Path((String) result[i]);
+		}
+		new CompareSamplesOperation(samplesModel).run(sample, scope);
+	}
+
 	public void createPartControl(final Composite parent) {
 		final Composite workArea = new Composite(parent, SWT.NONE);
 		final GridLayout layout = new GridLayout();
 		workArea.setLayout(layout);
 		workArea.setLayoutData(new GridData(GridData.FILL_BOTH | GridData.GRAB_HORIZONTAL | GridData.GRAB_VERTICAL));
+		createFilterText(workArea);
 		createSamplesList(workArea);
 		Dialog.applyDialogFont(workArea);
 		updateTargetList();
@@ -85,6 +176,20 @@ public class SamplesView extends ViewPart {
 		fillActionBars(samplesList.getControl());
 	}
 
+	/**
+	 * Create the text box filtering the list of samples by name or number.
+	 */
+	private void createFilterText(final Composite parent) {
+		filterText = new Text(parent, SWT.SINGLE | SWT.BORDER | SWT.SEARCH);
+		filterText.setMessage("type filter text");
+		filterText.setLayoutData(new GridData(GridData.FILL_HORIZONTAL | GridData.GRAB_HORIZONTAL));
+		filterText.addModifyListener(new ModifyListener() {
+			public void modifyText(final ModifyEvent e) {
+				updateFilter();
+			}
+		});
+	}
+
 	/**
 	 * Create the checkbox list for the found samples.
 	 * 
@@ -93,23 +198,41 @@ public class SamplesView extends ViewPart {
 	private void createSamplesList(final Composite listComposite) {
 //		Label title = new Label(listComposite, SWT.NONE);
 //		title.setText("Sample Code:");
-		samplesList = new TableViewer(listComposite, SWT.BORDER | SWT.SINGLE);
+		samplesList = new TableViewer(listComposite, SWT.BORDER | SWT.MULTI | SWT.VIRTUAL);
 		final GridData listData = new GridData(GridData.GRAB_HORIZONTAL | GridData.GRAB_VERTICAL | GridData.FILL_BOTH);
 		listData.heightHint = 125;
 		listData.widthHint = 100;
 		samplesList.getControl().setLayoutData(listData);
-		samplesList.setSorter(new ViewerSorter() {
-			public int compare(final Viewer viewer, final Object e1, final Object e2) {
-				final Sample c1 = (Sample) e1;
-				final Sample c2 = (Sample) e2;
-				return c1.getNumber().compareTo(c2.getNumber());
+		// the samples are sorted once when they are found, and only the visible
+		// rows are ever created
+		samplesList.setUseHashlookup(true);
+		samplesList.setContentProvider(new ILazyContentProvider() {
+			public void dispose() {
+				// nothing to dispose
+			}
+
+			public void inputChanged(final Viewer viewer, final Object oldInput, final Object newInput) {
+				// elements are looked up in visibleSamples
+			}
+
+			public void updateElement(final int index) {
+				if (index < visibleSamples.length) {
+					samplesList.replace(visibleSamples[index], index);
+				}
 			}
 		});
-		samplesList.setContentProvider(new ArrayContentProvider());
-		samplesList.setLabelProvider(new SamplesLabelProvider());
+		labelProvider = new SamplesLabelProvider();
+		samplesList.setLabelProvider(labelProvider);
 		samplesList.getControl().setFocus();
 	}
 
+	public void dispose() {
+		if (statusTracker != null) {
+			statusTracker.dispose();
+		}
+		super.dispose();
+	}
+
 	protected void fillActionBars(final Control control) {
 		final IActionBars bars = getViewSite().getActionBars();
 		importAction = new Action("&Import") {
@@ -135,6 +258,41 @@ public class SamplesView extends ViewPart {
 		};
 		compareAction.setImageDescriptor(AbstractUIPlugin.imageDescriptorFromPlugin("org.eclipse.compare", "icons/full/elcl16/twowaycompare_co.gif"));
 		compareAction.setToolTipText("Compare the projects in your workspace with the currently selected sample code");
+
+		compareSamplesAction = new Action("Compare &Samples") {
+			public void run() {
+				buttonPressed(COMPARE_SAMPLES_ID);
+			}
+		};
+		compareSamplesAction.setToolTipText("Compare the two selected samples with each other");
+
+		compareProjectsAction = new Action("Compare &Projects...") {
+			public void run() {
+				buttonPressed(COMPARE_PROJECTS_ID);
+			}
+		};
+		compareProjectsAction.setToolTipText("Compare some projects of the selected sample code with your workspace");
+
+		searchAction = new Action("Sea&rch Samples...") {
+			public void run() {
+				buttonPressed(SEARCH_ID);
+			}
+		};
+		searchAction.setToolTipText("Find the samples using a class, method or other identifier");
+
+		historyAction = new Action("File &History...") {
+			public void run() {
+				buttonPressed(HISTORY_ID);
+			}
+		};
+		historyAction.setToolTipText("Show the samples in which a file changes and compare each step");
+
+		statisticsAction = new Action("Statis&tics...") {
+			public void run() {
+				buttonPressed(STATISTICS_ID);
+			}
+		};
+		statisticsAction.setToolTipText("Show timings, cache hit rates and sizes of discovery, imports and compares");
 		final IToolBarManager toolbar = bars.getToolBarManager();
 		toolbar.add(importAction);
 		toolbar.add(compareAction);
@@ -143,10 +301,17 @@ public class SamplesView extends ViewPart {
 		menu.add(importAction);
 		menu.add(targetAction);
 		menu.add(compareAction);
+		menu.add(compareProjectsAction);
+		menu.add(compareSamplesAction);
+		menu.add(searchAction);
+		menu.add(historyAction);
+		menu.add(statisticsAction);
 
 		final MenuManager contextMenu = new MenuManager();
 		contextMenu.add(importAction);
 		contextMenu.add(compareAction);
+		contextMenu.add(compareProjectsAction);
+		contextMenu.add(compareSamplesAction);
 		control.setMenu(contextMenu.createContextMenu(control));
 	}
 
@@ -158,6 +323,15 @@ public class SamplesView extends ViewPart {
 		return null;
 	}
 
+	private Sample[] getSelectedSamples() {
+		final IStructuredSelection selected = (IStructuredSelection) samplesList.getSelection();
+		if (selected == null) {
+			return new Sample[0];
+		}
+		final List list = selected.toList();
+		return (Sample[]) list.toArray(new Sample[list.size()]);
+	}
+
 	protected Shell getShell() {
 		return getSite().getShell();
 	}
@@ -175,6 +349,112 @@ public class SamplesView extends ViewPart {
 		Utils.run(getShell(), operation);
 	}
 
+	/*
+	 * Asks for identifiers to search for and selects the sample of the chosen
+	 * match.
+	 */
+	private void search() {
+		final SearchIndex index = searchIndex;
+		if (index == null) {
+			MessageDialog.openInformation(getShell(), "Search Samples", "The samples are still being indexed. Please try again in a moment.");
+			return;
+		}
+		final InputDialog input = new InputDialog(getShell(), "Search Samples", "Identifiers to find on one line (use * at the end to match a prefix):", "", null);
+		if (input.open() != Window.OK) {
+			return;
+		}
+		final SearchIndex.Match[] matches = index.find(input.getValue());
+		if (matches.length == 0) {
+			MessageDialog.openInformation(getShell(), "Search Samples", "No sample contains '" + input.getValue() + "'.");
+			return;
+		}
+		final ElementListSelectionDialog dialog = new ElementListSelectionDialog(getShell(), new LabelProvider());
+		dialog.setTitle("Search Samples");
+		dialog.setMessage(matches.length + " matches, the first sample introducing it is listed first:");
+		dialog.setElements(matches);
+		if (dialog.open() != Window.OK) {
+			return;
+		}
+		final SearchIndex.Match match = (SearchIndex.Match) dialog.getFirstResult();
+		final Sample sample = samplesModel.findSampleById(match.getSampleNumber());
+		if (sample != null) {
+			filterText.setText("");
+			// select by position, so the virtual table only creates the revealed row
+			final int position = Arrays.asList(visibleSamples).indexOf(sample);
+			if (position >= 0) {
+				samplesList.getTable().setSelection(position);
+				samplesList.getTable().showSelection();
+			}
+		}
+	}
+
+	/*
+	 * Returns the sample with the highest number below the given one, or
+	 * null if there is none.
+	 */
+	private Sample getPreviousSample(final Float number) {
+		Sample result = null;
+		final Sample[] samples = samplesModel.getSamples();
+		for (int i = 0; i < samples.length; i++) {
+			final float candidate = samples[i].getNumber().floatValue();
+			if ((candidate < number.floatValue()) && ((result == null) || (candidate > result.getNumber().floatValue()))) {
+				result = samples[i];
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Asks for a file and one of the samples changing it, and compares that
+	 * version of the file with the version before it. Only the two versions of
+	 * the file are loaded.
+	 */
+	private void showHistory() {
+		final FileHistory history = samplesModel == null ? null : samplesModel.getFileHistory();
+		if (history == null) {
+			MessageDialog.openInformation(getShell(), "File History", "The history of the sample files is still being computed. Please try again in a moment.");
+			return;
+		}
+		final ElementListSelectionDialog files = new ElementListSelectionDialog(getShell(), new LabelProvider());
+		files.setTitle("File History");
+		files.setMessage("Select a file (? = any character, * = any string):");
+		files.setElements(history.getPaths());
+		if (files.open() != Window.OK) {
+			return;
+		}
+		final String path = (String) files.getFirstResult();
+		final FileHistory.Version[] versions = history.getVersions(path);
+		final Map previous = new HashMap();
+		for (int i = 0; i < versions.length; i++) {
+			previous.put(versions[i], i > 0 ? versions[i - 1].getSampleNumber() : null);
+		}
+		final ElementListSelectionDialog steps = new ElementListSelectionDialog(getShell(), new LabelProvider() {
+			public String getText(final Object element) {
+				final FileHistory.Version version = (FileHistory.Version) element;
+				final Float before = (Float) previous.get(version);
+				if (before == null) {
+					return "Sample " + version.getSampleNumber() + ": added";
+				}
+				return "Sample " + version.getSampleNumber() + ": " + (version.isRemoved() ? "removed" : "changed") + " since sample " + before;
+			}
+		});
+		steps.setTitle("File History");
+		steps.setMessage("Samples changing " + path + ":");
+		steps.setElements(versions);
+		if (steps.open() != Window.OK) {
+			return;
+		}
+		final FileHistory.Version version = (FileHistory.Version) steps.getFirstResult();
+		final Sample sample = samplesModel.findSampleById(version.getSampleNumber());
+		final Float before = (Float) previous.get(version);
+		final Sample previousSample = before != null ? samplesModel.findSampleById(before) : getPreviousSample(version.getSampleNumber());
+		if ((sample == null) || (previousSample == null)) {
+			MessageDialog.openInformation(getShell(), "File History", path + " is part of the first sample.");
+			return;
+		}
+		new CompareSamplesOperation(samplesModel).run(previousSample, sample, new IPath[] { new Path(path) });
+	}
+
 	/**
 	 * Passing the focus request to the viewer's control.
 	 */
@@ -190,6 +470,18 @@ public class SamplesView extends ViewPart {
 		targetLocation = value;
 	}
 
+	/*
+	 * Shows the samples matching the filter text.
+	 */
+	private void updateFilter() {
+		if ((samplesList == null) || samplesList.getControl().isDisposed()) {
+			return;
+		}
+		visibleSamples = filterIndex == null ? new Sample[0] : filterIndex.find(filterText.getText());
+		samplesList.setInput(visibleSamples);
+		samplesList.setItemCount(visibleSamples.length);
+	}
+
 	/**
 	 * Update the list of Samples and projects
 	 * 
@@ -200,16 +492,79 @@ public class SamplesView extends ViewPart {
 			protected IStatus run(final IProgressMonitor monitor) {
 				samplesModel = new SamplesModel();
 				samplesModel.init(location, monitor);
+				final Sample[] sorted = (Sample[]) samplesModel.getSamples().clone();
+				SampleFilterIndex.sort(sorted);
+				final SampleFilterIndex index = new SampleFilterIndex(sorted);
+				final SampleStatusTracker tracker = new SampleStatusTracker(samplesModel, new SampleStatusTracker.IStatusListener() {
+					public void statusChanged(final Sample[] samples) {
+						getShell().getDisplay().asyncExec(new Runnable() {
+							public void run() {
+								if ((samplesList != null) && !samplesList.getControl().isDisposed()) {
+									samplesList.update(samples, null);
+								}
+							}
+						});
+					}
+				});
+				getShell().getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						if ((samplesList == null) || samplesList.getControl().isDisposed()) {
+							return;
+						}
+						if (statusTracker != null) {
+							statusTracker.dispose();
+						}
+						statusTracker = tracker;
+						labelProvider.setStatusTracker(tracker);
+						tracker.start();
+						filterIndex = index;
+						updateFilter();
+					}
+				});
+				updateChanges(samplesModel);
+				updateSearchIndex(samplesModel);
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+	}
+
+	/*
+	 * Computes the per-sample change summaries in the background and refreshes
+	 * the labels once they are available.
+	 */
+	private void updateChanges(final SamplesModel model) {
+		final Job job = new ChangeManifestJob(model);
+		job.addJobChangeListener(new JobChangeAdapter() {
+			public void done(final IJobChangeEvent event) {
 				getShell().getDisplay().asyncExec(new Runnable() {
 					public void run() {
 						if ((samplesList != null) && !samplesList.getControl().isDisposed()) {
-							samplesList.setInput(samplesModel.getSamples());
+							samplesList.refresh(true);
 						}
 					}
 				});
+			}
+		});
+		job.schedule();
+	}
+
+	/*
+	 * Loads or builds the search index in the background.
+	 */
+	private void updateSearchIndex(final SamplesModel model) {
+		searchIndex = null;
+		if (location == null) {
+			return;
+		}
+		final Job job = new Job("Indexing Samples") {
+			protected IStatus run(final IProgressMonitor monitor) {
+				searchIndex = SearchIndex.getIndex(model, location.source, monitor);
 				return Status.OK_STATUS;
 			}
 		};
+		job.setSystem(true);
+		job.setPriority(Job.DECORATE);
 		job.schedule();
 	}
 
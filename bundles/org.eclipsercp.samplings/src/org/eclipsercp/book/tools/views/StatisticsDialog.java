@@ -0,0 +1,142 @@
+package org.eclipsercp.book.tools.views;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+
+import org.eclipsercp.book.tools.Metrics;
+import org.eclipsercp.book.tools.Utils;
+
+/**
+ * Shows the counters and histograms of the <code>Metrics</code> registry:
+ * discovery times, cache hit rates, files and bytes per import, phase timings
+ * and compare file counts. The table is refreshed every second while the
+ * dialog is open, so it can be kept open next to the samples view while
+ * importing and comparing. The values can be reset and exported as CSV.
+ */
+public class StatisticsDialog extends Dialog {
+
+	private static final int RESET_ID = IDialogConstants.CLIENT_ID + 1;
+	private static final int EXPORT_ID = IDialogConstants.CLIENT_ID + 2;
+
+	private static final int REFRESH_INTERVAL = 1000;
+
+	private Table table;
+
+	private final Runnable refresher = new Runnable() {
+		public void run() {
+			if ((table != null) && !table.isDisposed()) {
+				refresh();
+				table.getDisplay().timerExec(REFRESH_INTERVAL, this);
+			}
+		}
+	};
+
+	public StatisticsDialog(final Shell parentShell) {
+		super(parentShell);
+		setShellStyle((getShellStyle() & ~SWT.APPLICATION_MODAL) | SWT.MODELESS | SWT.RESIZE);
+		setBlockOnOpen(false);
+	}
+
+	protected void buttonPressed(final int buttonId) {
+		switch (buttonId) {
+			case RESET_ID:
+				Metrics.reset();
+				refresh();
+				break;
+			case EXPORT_ID:
+				export();
+				break;
+			default:
+				super.buttonPressed(buttonId);
+		}
+	}
+
+	public boolean close() {
+		if ((table != null) && !table.isDisposed()) {
+			table.getDisplay().timerExec(-1, refresher);
+		}
+		return super.close();
+	}
+
+	protected void configureShell(final Shell newShell) {
+		super.configureShell(newShell);
+		newShell.setText("Samples Statistics");
+	}
+
+	protected void createButtonsForButtonBar(final Composite parent) {
+		createButton(parent, RESET_ID, "&Reset", false);
+		createButton(parent, EXPORT_ID, "&Export CSV...", false);
+		createButton(parent, IDialogConstants.OK_ID, IDialogConstants.CLOSE_LABEL, true);
+	}
+
+	protected Control createDialogArea(final Composite parent) {
+		final Composite composite = (Composite) super.createDialogArea(parent);
+		table = new Table(composite, SWT.BORDER | SWT.FULL_SELECTION | SWT.V_SCROLL | SWT.H_SCROLL);
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		final GridData data = new GridData(GridData.FILL_BOTH);
+		data.widthHint = convertWidthInCharsToPixels(110);
+		data.heightHint = convertHeightInCharsToPixels(24);
+		table.setLayoutData(data);
+		for (int i = 0; i < Metrics.COLUMNS.length; i++) {
+			final TableColumn column = new TableColumn(table, i == 0 ? SWT.LEFT : SWT.RIGHT);
+			column.setText(Metrics.COLUMNS[i]);
+			column.setWidth(convertWidthInCharsToPixels(i == 0 ? 36 : 10));
+		}
+		refresh();
+		table.getDisplay().timerExec(REFRESH_INTERVAL, refresher);
+		return composite;
+	}
+
+	private void export() {
+		final FileDialog dialog = new FileDialog(getShell(), SWT.SAVE);
+		dialog.setText("Export Statistics");
+		dialog.setFilterExtensions(new String[] { "*.csv" });
+		dialog.setFileName("samples-statistics.csv");
+		final String file = dialog.open();
+		if (file == null) {
+			return;
+		}
+		Writer out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			Metrics.writeCsv(out);
+		} catch (final IOException e) {
+			Utils.handleError(getShell(), e, "Error", "Error exporting statistics.");
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void refresh() {
+		final String[][] rows = Metrics.getTable();
+		final int top = table.getTopIndex();
+		table.setItemCount(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			final TableItem item = table.getItem(i);
+			item.setText(rows[i]);
+		}
+		table.setTopIndex(top);
+	}
+}